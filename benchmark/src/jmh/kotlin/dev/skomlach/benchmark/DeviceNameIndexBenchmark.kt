@@ -0,0 +1,86 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.benchmark
+
+import dev.skomlach.common.device.DeviceNameIndex
+import org.json.JSONArray
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.io.File
+import java.util.Locale
+
+/**
+ * Fuzzy device-name matching of DeviceInfoManager over the bundled devices.json: the trigram
+ * prefilter of [DeviceNameIndex] against the original scan of every record.
+ */
+@State(Scope.Benchmark)
+open class DeviceNameIndexBenchmark {
+    private lateinit var names: Array<String?>
+    private lateinit var queries: List<String>
+    private lateinit var index: DeviceNameIndex
+
+    @Setup
+    fun setUp() {
+        //Passed by benchmark/build.gradle
+        val sources = File(System.getProperty("devicedb.sources") ?: "common/src/devicedb")
+        val devices = JSONArray(File(sources, "devices.json").readText())
+        names = Array(devices.length()) {
+            devices.getJSONObject(it).optString("name", null)
+        }
+        //Full names, lowercase names and the brand + model prefixes DeviceInfoManager tries first
+        queries = (names.indices step 37).mapNotNull { names[it] }.flatMap {
+            listOf(it, it.lowercase(Locale.ROOT), it.substringBeforeLast(' '), "$it 5G Dual SIM")
+        }
+        index = DeviceNameIndex(names.size) { names[it] }
+    }
+
+    @Benchmark
+    fun buildIndex(): Any = DeviceNameIndex(names.size) { names[it] }
+
+    @Benchmark
+    fun indexed(): Int {
+        var found = 0
+        for (query in queries) {
+            for (record in index.candidates(query)) {
+                if (names[record]?.contains(query, ignoreCase = true) == true) {
+                    found++
+                    break
+                }
+            }
+        }
+        return found
+    }
+
+    @Benchmark
+    fun linearScan(): Int {
+        var found = 0
+        for (query in queries) {
+            for (name in names) {
+                if (name?.contains(query, ignoreCase = true) == true) {
+                    found++
+                    break
+                }
+            }
+        }
+        return found
+    }
+}
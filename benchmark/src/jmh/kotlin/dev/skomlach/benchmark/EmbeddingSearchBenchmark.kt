@@ -0,0 +1,63 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.benchmark
+
+import dev.skomlach.biometric.custom.face.tf.tflite.EmbeddingSearch
+import dev.skomlach.biometric.custom.face.tf.tflite.SimilarityClassifier
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.Random
+
+/**
+ * Matching of a face embedding against the registered faces, done for every recognized frame
+ * of TFLiteObjectDetectionAPIModel.
+ */
+@State(Scope.Benchmark)
+open class EmbeddingSearchBenchmark {
+    companion object {
+        //OUTPUT_SIZE of TFLiteObjectDetectionAPIModel
+        private const val EMBEDDING_SIZE = 192
+    }
+
+    @Param("1", "10", "100")
+    var faces = 0
+
+    private val registered = HashMap<String, SimilarityClassifier.Recognition>()
+    private lateinit var embedding: FloatArray
+
+    @Setup
+    fun setUp() {
+        val random = Random(42)
+        fun next() = FloatArray(EMBEDDING_SIZE) { random.nextGaussian().toFloat() }
+        registered.clear()
+        for (i in 0 until faces) {
+            registered["face $i"] = SimilarityClassifier.Recognition("$i", "face $i", 0f, null).apply {
+                extra = arrayOf(next())
+            }
+        }
+        embedding = next()
+    }
+
+    @Benchmark
+    fun findNearest(): Map.Entry<String, Float>? = EmbeddingSearch.findNearest(registered, embedding)
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.benchmark
+
+import dev.skomlach.biometric.compat.crypto.rsa.RsaPrivateKey
+import dev.skomlach.biometric.compat.crypto.rsa.RsaPublicKey
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.security.KeyPairGenerator
+import java.security.interfaces.RSAPrivateCrtKey
+import java.security.interfaces.RSAPublicKey
+
+/**
+ * Serialization of the legacy (pre-Keystore) RSA key pair, done on every encrypt/decrypt
+ * of CryptographyManagerInterfaceLegacyImpl/KitkatImpl.
+ */
+@State(Scope.Benchmark)
+open class RsaKeyBenchmark {
+    private lateinit var privateKey: RSAPrivateCrtKey
+    private lateinit var publicKey: RSAPublicKey
+    private lateinit var privateBytes: ByteArray
+    private lateinit var publicBytes: ByteArray
+
+    @Setup
+    fun setUp() {
+        //Same key size as CryptographyManagerInterfaceLegacyImpl
+        val keyPair = KeyPairGenerator.getInstance("RSA").apply {
+            initialize(2048)
+        }.generateKeyPair()
+        privateKey = keyPair.private as RSAPrivateCrtKey
+        publicKey = keyPair.public as RSAPublicKey
+        privateBytes = RsaPrivateKey.fromRsaKey(privateKey).toByteArray(8)
+        publicBytes = RsaPublicKey.fromRsaKey(publicKey).toByteArray(8)
+    }
+
+    @Benchmark
+    fun privateKeyToBytes(): ByteArray = RsaPrivateKey.fromRsaKey(privateKey).toByteArray(8)
+
+    @Benchmark
+    fun privateKeyFromBytes(): RSAPrivateCrtKey = RsaPrivateKey.fromByteArray(privateBytes, 8).toRsaKey()
+
+    @Benchmark
+    fun publicKeyToBytes(): ByteArray = RsaPublicKey.fromRsaKey(publicKey).toByteArray(8)
+
+    @Benchmark
+    fun publicKeyFromBytes(): RSAPublicKey = RsaPublicKey.fromByteArray(publicBytes, 8).toRsaKey()
+}
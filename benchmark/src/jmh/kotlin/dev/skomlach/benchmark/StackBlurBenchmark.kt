@@ -0,0 +1,82 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.benchmark
+
+import dev.skomlach.common.blur.ReferenceStackBlur
+import dev.skomlach.common.blur.StackBlur
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.util.Random
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Stack blur fallback of FastBlur on a 1080p frame: the original single-threaded algorithm
+ * against the banded [StackBlur] with the band count FastBlur picks on this machine.
+ *
+ * The blur does the same work for any content, so the frame is blurred in place again on every call.
+ */
+@State(Scope.Benchmark)
+open class StackBlurBenchmark {
+    @Param("1080x1920", "1920x1080")
+    lateinit var size: String
+
+    @Param("8", "25")
+    var radius = 0
+
+    private var w = 0
+    private var h = 0
+    private lateinit var pix: IntArray
+    private lateinit var executor: ExecutorService
+    private lateinit var stackBlur: StackBlur
+
+    @Setup
+    fun setUp() {
+        w = size.substringBefore('x').toInt()
+        h = size.substringAfter('x').toInt()
+        val random = Random(42)
+        pix = IntArray(w * h) { random.nextInt() }
+        //Same split as FastBlur
+        val bands = Runtime.getRuntime().availableProcessors().coerceIn(1, 4)
+        executor = Executors.newFixedThreadPool((bands - 1).coerceAtLeast(1))
+        stackBlur = StackBlur(executor, bands)
+    }
+
+    @TearDown
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Benchmark
+    fun reference(): IntArray {
+        ReferenceStackBlur.blur(pix, w, h, radius)
+        return pix
+    }
+
+    @Benchmark
+    fun banded(): IntArray {
+        stackBlur.blur(pix, w, h, radius)
+        return pix
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.benchmark
+
+import dev.skomlach.common.translate.TranslationLog
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.io.File
+
+/**
+ * Loading of the translation log, done by the first TranslationCache.get() of a language pair;
+ * later calls are a lookup in the loaded HashMap.
+ */
+@State(Scope.Benchmark)
+open class TranslationLogBenchmark {
+    @Param("100", "1000")
+    var records = 0
+
+    private lateinit var dir: File
+    private lateinit var log: TranslationLog
+
+    @Setup
+    fun setUp() {
+        dir = kotlin.io.path.createTempDirectory("translations").toFile()
+        log = TranslationLog(File(dir, "en-fr.log"))
+        val map = HashMap<String, String>()
+        for (i in 0 until records)
+            map["Biometric authentication string $i"] = "Chaîne d'authentification biométrique $i"
+        log.compact(map)
+    }
+
+    @TearDown
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Benchmark
+    fun read(): HashMap<String, String> = HashMap<String, String>().also { log.read(it) }
+}
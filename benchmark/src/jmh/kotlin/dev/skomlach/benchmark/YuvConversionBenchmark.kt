@@ -0,0 +1,62 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.benchmark
+
+import dev.skomlach.biometric.custom.face.tf.tflite.faceai.env.ImageUtils
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.Random
+
+/**
+ * YUV_420_888 camera frame to ARGB conversion, done for every preview frame of the face detector.
+ * Planes are laid out as most devices deliver them: U and V interleaved (pixel stride 2).
+ */
+@State(Scope.Benchmark)
+open class YuvConversionBenchmark {
+    @Param("640x480", "1280x720")
+    lateinit var size: String
+
+    private var width = 0
+    private var height = 0
+    private lateinit var y: ByteArray
+    private lateinit var u: ByteArray
+    private lateinit var v: ByteArray
+    private lateinit var out: IntArray
+
+    @Setup
+    fun setUp() {
+        width = size.substringBefore('x').toInt()
+        height = size.substringAfter('x').toInt()
+        val random = Random(42)
+        y = ByteArray(width * height).also { random.nextBytes(it) }
+        u = ByteArray(width * height / 2).also { random.nextBytes(it) }
+        v = ByteArray(width * height / 2).also { random.nextBytes(it) }
+        out = IntArray(width * height)
+    }
+
+    @Benchmark
+    fun convertYUV420ToARGB8888(): IntArray {
+        ImageUtils.convertYUV420ToARGB8888(y, u, v, width, height, width, width, 2, out)
+        return out
+    }
+}
@@ -0,0 +1,53 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package dev.skomlach.biometric.custom.face.tf.tflite;
+
+import java.util.AbstractMap;
+import java.util.Map;
+
+/** Nearest-neighbour search over the registered face embeddings. */
+public final class EmbeddingSearch {
+    private EmbeddingSearch() {
+    }
+
+    /**
+     * Looks for the nearest embedding in the dataset (using L2 norm).
+     *
+     * @param registered faces with their embeddings in {@code ((float[][]) extra)[0]}
+     * @return the name and the distance of the nearest face, or null if the dataset is empty
+     */
+    public static Map.Entry<String, Float> findNearest(
+            final Map<String, SimilarityClassifier.Recognition> registered, final float[] emb) {
+        String nearest = null;
+        float nearestDistance = 0;
+        for (Map.Entry<String, SimilarityClassifier.Recognition> entry : registered.entrySet()) {
+            final float[] knownEmb = ((float[][]) entry.getValue().getExtra())[0];
+
+            float distance = 0;
+            for (int i = 0; i < emb.length; i++) {
+                float diff = emb[i] - knownEmb[i];
+                distance += diff * diff;
+            }
+            distance = (float) Math.sqrt(distance);
+            if (nearest == null || distance < nearestDistance) {
+                nearest = entry.getKey();
+                nearestDistance = distance;
+            }
+        }
+
+        return nearest == null ? null : new AbstractMap.SimpleImmutableEntry<>(nearest, nearestDistance);
+    }
+}
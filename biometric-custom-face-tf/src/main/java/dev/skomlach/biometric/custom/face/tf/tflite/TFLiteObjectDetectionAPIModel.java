@@ -24,7 +24,6 @@ import android.graphics.RectF;
 import android.os.AsyncTask;
 import android.util.Base64;
 import android.util.Log;
-import android.util.Pair;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -298,29 +297,6 @@ public class TFLiteObjectDetectionAPIModel
         });
     }
 
-    // looks for the nearest embeeding in the dataset (using L2 norm)
-    // and retrurns the pair <id, distance>
-    private Pair<String, Float> findNearest(float[] emb) {
-
-        Pair<String, Float> ret = null;
-        for (Map.Entry<String, Recognition> entry : registered.entrySet()) {
-            final String name = entry.getKey();
-            final float[] knownEmb = ((float[][]) entry.getValue().getExtra())[0];
-
-            float distance = 0;
-            for (int i = 0; i < emb.length; i++) {
-                float diff = emb[i] - knownEmb[i];
-                distance += diff * diff;
-            }
-            distance = (float) Math.sqrt(distance);
-            if (ret == null || distance < ret.second) {
-                ret = new Pair<>(name, distance);
-            }
-        }
-
-        return ret;
-    }
-
     @Override
     public List<Recognition> recognizeImage(final Bitmap bitmap, boolean storeExtra) {
         // Log this method so that it can be analyzed with systrace.
@@ -372,12 +348,12 @@ public class TFLiteObjectDetectionAPIModel
 
         if (!registered.isEmpty()) {
             //LOGGER.i("dataset SIZE: " + registered.size());
-            final Pair<String, Float> nearest = findNearest(embeedings[0]);
+            final Map.Entry<String, Float> nearest = EmbeddingSearch.findNearest(registered, embeedings[0]);
             if (nearest != null) {
 
-                final String name = nearest.first;
+                final String name = nearest.getKey();
                 label = name;
-                distance = nearest.second;
+                distance = nearest.getValue();
 
                 Log.e(getClass().getSimpleName(), "nearest: " + name + " - distance: " + distance);
             }
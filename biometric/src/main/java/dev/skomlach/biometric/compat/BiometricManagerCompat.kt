@@ -32,6 +32,7 @@ import androidx.fragment.app.FragmentActivity
 import dev.skomlach.biometric.compat.custom.CustomBiometricProvider
 import dev.skomlach.biometric.compat.engine.BiometricAuthentication
 import dev.skomlach.biometric.compat.engine.BiometricMethod
+import dev.skomlach.biometric.compat.utils.BiometricCapabilitySnapshot
 import dev.skomlach.biometric.compat.utils.BiometricErrorLockoutPermanentFix
 import dev.skomlach.biometric.compat.utils.DevicesWithKnownBugs
 import dev.skomlach.biometric.compat.utils.HardwareAccessImpl
@@ -202,7 +203,7 @@ object BiometricManagerCompat {
                     api.type
                 )
             ).isBiometricEnrollChanged
-        BiometricLoggerImpl.d("BiometricManagerCompat.isBiometricEnrollChanged for $api return $result")
+        BiometricLoggerImpl.d { "BiometricManagerCompat.isBiometricEnrollChanged for $api return $result" }
         preferences.edit().putBoolean("isBiometricEnrollChanged-${api.api}-${api.type}", result)
             .apply()
         return result
@@ -438,7 +439,7 @@ object BiometricManagerCompat {
             result = total > 0 && (total == counted)
         }
         val isCameraBlocked = isCameraNotAvailable(api, ignoreCameraCheck)
-        BiometricLoggerImpl.d("BiometricManagerCompat.isBiometricSensorPermanentlyLocked for $api return ${result || isCameraBlocked}")
+        BiometricLoggerImpl.d { "BiometricManagerCompat.isBiometricSensorPermanentlyLocked for $api return ${result || isCameraBlocked}" }
         return result || isCameraBlocked
     }
 
@@ -455,23 +456,7 @@ object BiometricManagerCompat {
             BiometricLoggerImpl.e("Please call BiometricPromptCompat.init(null);  first")
             return preferences.getBoolean("isHardwareDetected-${api.api}-${api.type}", false)
         }
-        val result = if (api.api != BiometricApi.AUTO)
-            HardwareAccessImpl.getInstance(api).isHardwareAvailable
-        else
-            HardwareAccessImpl.getInstance(
-                BiometricAuthRequest(
-                    BiometricApi.LEGACY_API,
-                    api.type
-                )
-            ).isHardwareAvailable || HardwareAccessImpl.getInstance(
-                BiometricAuthRequest(
-                    BiometricApi.BIOMETRIC_API,
-                    api.type
-                )
-            ).isHardwareAvailable
-        BiometricLoggerImpl.d("BiometricManagerCompat.isHardwareDetected for $api return $result")
-        preferences.edit().putBoolean("isHardwareDetected-${api.api}-${api.type}", result).apply()
-        return result
+        return BiometricCapabilitySnapshot.get().isHardwareDetected(api)
     }
 
     @JvmStatic
@@ -483,29 +468,13 @@ object BiometricManagerCompat {
     ): Boolean {
         if (!BiometricPromptCompat.API_ENABLED)
             return false
-        if(!isBiometricAppEnabled())
-            return false
         if (!BiometricPromptCompat.isInitialized) {
             BiometricLoggerImpl.e("Please call BiometricPromptCompat.init(null);  first")
+            if(!isBiometricAppEnabled())
+                return false
             return preferences.getBoolean("hasEnrolled-${api.api}-${api.type}", false)
         }
-        val result = if (api.api != BiometricApi.AUTO)
-            HardwareAccessImpl.getInstance(api).isBiometricEnrolled
-        else
-            HardwareAccessImpl.getInstance(
-                BiometricAuthRequest(
-                    BiometricApi.LEGACY_API,
-                    api.type
-                )
-            ).isBiometricEnrolled || HardwareAccessImpl.getInstance(
-                BiometricAuthRequest(
-                    BiometricApi.BIOMETRIC_API,
-                    api.type
-                )
-            ).isBiometricEnrolled
-        BiometricLoggerImpl.d("BiometricManagerCompat.hasEnrolled for $api return $result")
-        preferences.edit().putBoolean("hasEnrolled-${api.api}-${api.type}", result).apply()
-        return result
+        return BiometricCapabilitySnapshot.get().hasEnrolled(api)
     }
 
     @JvmStatic
@@ -525,28 +494,7 @@ object BiometricManagerCompat {
                 false
             )
         }
-        val result = if (api.api != BiometricApi.AUTO)
-            HardwareAccessImpl.getInstance(api).isLockedOut
-        else {
-            var isLockedOut = HardwareAccessImpl.getInstance(
-                BiometricAuthRequest(
-                    BiometricApi.LEGACY_API,
-                    api.type
-                )
-            ).isLockedOut
-            if(!isLockedOut)
-                isLockedOut = HardwareAccessImpl.getInstance(
-                    BiometricAuthRequest(
-                        BiometricApi.BIOMETRIC_API,
-                        api.type
-                    )
-                ).isLockedOut
-            isLockedOut
-        }
-        val cameraInUse = isCameraInUse(api, ignoreCameraCheck)
-        BiometricLoggerImpl.d("BiometricManagerCompat.isLockOut for $api return ${result}  && ${cameraInUse}")
-        preferences.edit().putBoolean("isLockOut-${api.api}-${api.type}", result).apply()
-        return result || cameraInUse
+        return BiometricCapabilitySnapshot.get().isLockOut(api) || isCameraInUse(api, ignoreCameraCheck)
     }
 
     @JvmStatic
@@ -32,6 +32,7 @@ import androidx.appcompat.app.AppCompatDelegate
 import androidx.core.content.ContextCompat
 import androidx.fragment.app.FragmentActivity
 import dev.skomlach.biometric.compat.crypto.CryptographyManager
+import dev.skomlach.biometric.compat.crypto.CryptoWarmupCache
 import dev.skomlach.biometric.compat.engine.BiometricAuthentication
 import dev.skomlach.biometric.compat.engine.BiometricInitListener
 import dev.skomlach.biometric.compat.engine.BiometricMethod
@@ -45,6 +46,7 @@ import dev.skomlach.biometric.compat.impl.dialogs.UntrustedAccessibilityFragment
 import dev.skomlach.biometric.compat.utils.*
 import dev.skomlach.biometric.compat.utils.activityView.ActivityViewWatcher
 import dev.skomlach.biometric.compat.utils.appstate.AppBackgroundDetector
+import dev.skomlach.biometric.compat.utils.hardware.BiometricFeatureIndex
 import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl
 import dev.skomlach.biometric.compat.utils.notification.BiometricNotificationManager
 import dev.skomlach.biometric.compat.utils.themes.DarkLightThemes
@@ -53,6 +55,8 @@ import dev.skomlach.common.device.DeviceInfo
 import dev.skomlach.common.device.DeviceInfoManager
 import dev.skomlach.common.logging.LogCat
 import dev.skomlach.common.misc.ExecutorHelper
+import dev.skomlach.common.misc.SystemPropertiesProxy
+import dev.skomlach.common.misc.SystemStringsHelper
 import dev.skomlach.common.misc.Utils
 import dev.skomlach.common.misc.isActivityFinished
 import dev.skomlach.common.multiwindow.MultiWindowSupport
@@ -62,6 +66,8 @@ import dev.skomlach.common.protection.A11yDetection
 import dev.skomlach.common.protection.HookDetection
 import dev.skomlach.common.statusbar.StatusBarTools
 import dev.skomlach.common.translate.LocalizationHelper
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Deferred
 import org.lsposed.hiddenapibypass.HiddenApiBypass
 import java.nio.charset.Charset
 import java.util.*
@@ -103,6 +109,15 @@ class BiometricPromptCompat private constructor(private val builder: Builder) {
             API_ENABLED = enabled
         }
 
+        var FAST_INIT_ENABLED = false
+            private set
+
+        //Skip modules known to be missing on this device/firmware and limit init time
+        @JvmStatic
+        fun fastInitEnabled(enabled: Boolean) {
+            FAST_INIT_ENABLED = enabled
+        }
+
         private val availableAuthRequests = HashSet<BiometricAuthRequest>()
             get() {
                 if (field.isEmpty()) {
@@ -153,9 +168,14 @@ class BiometricPromptCompat private constructor(private val builder: Builder) {
         private val pendingTasks: MutableList<Runnable?> =
             Collections.synchronizedList(ArrayList<Runnable?>())
         private var isBiometricInit = AtomicBoolean(false)
+        private val readySignal = CompletableDeferred<Unit>()
         var isInitialized = false
             get() = isBiometricInit.get()
             private set
+
+        //Completes as soon as the biometric modules are initialized
+        @JvmStatic
+        fun awaitReady(): Deferred<Unit> = readySignal
         private var initInProgress = AtomicBoolean(false)
         var deviceInfo: DeviceInfo? = null
             private set
@@ -201,6 +221,10 @@ class BiometricPromptCompat private constructor(private val builder: Builder) {
                         BiometricLoggerImpl.d("BiometricPromptCompat ${DevicesWithKnownBugs.isMissedBiometricUI}")
                     }
                     DeviceUnlockedReceiver.registerDeviceUnlockListener()
+                    BiometricCapabilitySnapshot.registerInvalidationListeners()
+                    BiometricFeatureIndex.prefetch()
+                    SystemPropertiesProxy.preload(AndroidContext.appContext)
+                    SystemStringsHelper.prefetch()
                     NotificationPermissionsFragment.preloadTranslations()
                     UntrustedAccessibilityFragment.preloadTranslations()
                     if (DevicesWithKnownBugs.isHideDialogInstantly) {
@@ -224,17 +248,22 @@ class BiometricPromptCompat private constructor(private val builder: Builder) {
                 ) {
                 }
 
+                override fun onModuleProbeTime(method: BiometricMethod, durationMs: Long) {
+                    BiometricLoggerImpl.d("BiometricPromptCompat.init() - $method probed in $durationMs ms")
+                }
+
                 override fun onBiometricReady() {
                     BiometricLoggerImpl.d("BiometricPromptCompat.init() - finished")
                     isBiometricInit.set(true)
                     initInProgress.set(false)
+                    readySignal.complete(Unit)
 
                     for (task in pendingTasks) {
                         task?.let { ExecutorHelper.post(it) }
                     }
                     pendingTasks.clear()
                 }
-            })
+            }, useProbeCache = FAST_INIT_ENABLED)
         }
     }
 
@@ -323,48 +352,51 @@ class BiometricPromptCompat private constructor(private val builder: Builder) {
             authFlowInProgress.set(false)
             return
         }
-        val startTime = System.currentTimeMillis()
-        var timeout = false
-        ExecutorHelper.startOnBackground {
-            while (!builder.isTruncateChecked() || !isInitialized) {
-                timeout = System.currentTimeMillis() - startTime >= TimeUnit.SECONDS.toMillis(5)
-                if (timeout) {
-                    break
-                }
-                try {
-                    Thread.sleep(10)
-                } catch (ignore: InterruptedException) {
-                }
+        val isReady = AtomicBoolean(false)
+        val timeoutTask = Runnable {
+            if (isReady.compareAndSet(false, true)) {
+                callbackOuter.onFailed(AuthenticationFailureReason.NOT_INITIALIZED_ERROR, null)
+                authFlowInProgress.set(false)
             }
-            if (builder.getAllAvailableTypes().isEmpty()) {
-                val checkHardware = checkHardware()
-                val interruptAuth = when (checkHardware) {
-                    //Temporary blocked, we can try to bypass
-                    AuthenticationFailureReason.LOCKED_OUT, AuthenticationFailureReason.HARDWARE_UNAVAILABLE -> !builder.forceDeviceCredential()
-                    //All good
-                    AuthenticationFailureReason.UNKNOWN -> false
-                    //Not able to continue
-                    else -> true
-                }
-                if (interruptAuth) {
-                    ExecutorHelper.post {
-                        callbackOuter.onFailed(
-                            checkHardware,
-                            null
-                        )
-                        authFlowInProgress.set(false)
+        }
+        ExecutorHelper.postDelayed(timeoutTask, TimeUnit.SECONDS.toMillis(5))
+        builder.awaitTruncateChecked().invokeOnCompletion {
+            awaitReady().invokeOnCompletion {
+                if (isReady.compareAndSet(false, true)) {
+                    ExecutorHelper.removeCallbacks(timeoutTask)
+                    ExecutorHelper.startOnCriticalBackground {
+                        checkHardwareAndStartAuth(callbackOuter)
                     }
-                    return@startOnBackground
                 }
             }
-            ExecutorHelper.post {
-                if (timeout) {
-                    callbackOuter.onFailed(AuthenticationFailureReason.NOT_INITIALIZED_ERROR, null)
+        }
+    }
+
+    private fun checkHardwareAndStartAuth(callbackOuter: AuthenticationCallback) {
+        if (builder.getAllAvailableTypes().isEmpty()) {
+            val checkHardware = checkHardware()
+            val interruptAuth = when (checkHardware) {
+                //Temporary blocked, we can try to bypass
+                AuthenticationFailureReason.LOCKED_OUT, AuthenticationFailureReason.HARDWARE_UNAVAILABLE -> !builder.forceDeviceCredential()
+                //All good
+                AuthenticationFailureReason.UNKNOWN -> false
+                //Not able to continue
+                else -> true
+            }
+            if (interruptAuth) {
+                ExecutorHelper.post {
+                    callbackOuter.onFailed(
+                        checkHardware,
+                        null
+                    )
                     authFlowInProgress.set(false)
-                } else
-                    startAuth(callbackOuter)
+                }
+                return
             }
         }
+        ExecutorHelper.post {
+            startAuth(callbackOuter)
+        }
     }
 
     private fun checkHardware(): AuthenticationFailureReason {
@@ -779,13 +811,7 @@ class BiometricPromptCompat private constructor(private val builder: Builder) {
             return
         }
         authFlowInProgress.set(false)
-        ExecutorHelper.startOnBackground {
-            while (!isInitialized) {
-                try {
-                    Thread.sleep(10)
-                } catch (ignore: InterruptedException) {
-                }
-            }
+        awaitReady().invokeOnCompletion {
             ExecutorHelper.post {
                 impl.cancelAuthentication()
             }
@@ -941,7 +967,7 @@ class BiometricPromptCompat private constructor(private val builder: Builder) {
         @ColorInt
         private var colorStatusBar: Int = Color.TRANSPARENT
 
-        private var isTruncateChecked: Boolean? = null
+        private var truncateCheck: CompletableDeferred<Unit>? = null
 
 
         private var autoVerifyCryptoAfterSuccess = false
@@ -986,7 +1012,9 @@ class BiometricPromptCompat private constructor(private val builder: Builder) {
             ) {
                 autoVerifyCryptoAfterSuccess = true
                 biometricCryptographyPurpose =
-                    BiometricCryptographyPurpose(BiometricCryptographyPurpose.ENCRYPT)
+                    BiometricCryptographyPurpose(BiometricCryptographyPurpose.ENCRYPT).also {
+                        CryptoWarmupCache.warmup(it) { getAllAvailableTypes() }
+                    }
             }
         }
 
@@ -1065,19 +1093,26 @@ class BiometricPromptCompat private constructor(private val builder: Builder) {
         }
 
         fun isTruncateChecked(): Boolean {
-            if (isTruncateChecked == null) {
-                isTruncateChecked = false
-                ExecutorHelper.post {
-                    TruncatedTextFix.recalculateTexts(
-                        this,
-                        object : TruncatedTextFix.OnTruncateChecked {
-                            override fun onDone() {
-                                isTruncateChecked = true
-                            }
-                        })
-                }
+            return awaitTruncateChecked().isCompleted
+        }
+
+        @Synchronized
+        internal fun awaitTruncateChecked(): Deferred<Unit> {
+            truncateCheck?.let {
+                return it
+            }
+            val deferred = CompletableDeferred<Unit>()
+            truncateCheck = deferred
+            ExecutorHelper.post {
+                TruncatedTextFix.recalculateTexts(
+                    this,
+                    object : TruncatedTextFix.OnTruncateChecked {
+                        override fun onDone() {
+                            deferred.complete(Unit)
+                        }
+                    })
             }
-            return isTruncateChecked ?: false
+            return deferred
         }
 
         fun getPrimaryAvailableTypes(): Set<BiometricType> {
@@ -1124,6 +1159,7 @@ class BiometricPromptCompat private constructor(private val builder: Builder) {
         ): Builder {
             autoVerifyCryptoAfterSuccess = false
             this.biometricCryptographyPurpose = biometricCryptographyPurpose
+            CryptoWarmupCache.warmup(biometricCryptographyPurpose) { getAllAvailableTypes() }
             return this
         }
 
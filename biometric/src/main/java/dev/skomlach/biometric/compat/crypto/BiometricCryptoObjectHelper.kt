@@ -22,10 +22,13 @@ package dev.skomlach.biometric.compat.crypto
 import android.os.Build
 import dev.skomlach.biometric.compat.BiometricCryptoObject
 import dev.skomlach.biometric.compat.BiometricCryptographyPurpose
-import kotlinx.coroutines.sync.Mutex
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 
 object BiometricCryptoObjectHelper {
-    private val mutex = Mutex()
+    //One lock per key alias: CryptoWarmupCache may delete/regenerate a key while the prompt path uses it
+    private val aliasLocks = ConcurrentHashMap<String, ReentrantLock>()
     private val managerInterface: CryptographyManagerInterface =
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
             CryptographyManagerInterfaceMarshmallowImpl()
@@ -36,9 +39,19 @@ object BiometricCryptoObjectHelper {
                 CryptographyManagerInterfaceLegacyImpl()
 
     fun deleteCrypto(name: String) {
-        managerInterface.deleteKey(name)
+        CryptoWarmupCache.invalidate(name)
+        deleteKey(name)
     }
 
+    internal fun deleteKey(name: String) {
+        withAliasLock(name) {
+            managerInterface.deleteKey(name)
+        }
+    }
+
+    internal fun <T> withAliasLock(name: String, block: () -> T): T =
+        aliasLocks.getOrPut(name) { ReentrantLock() }.withLock(block)
+
     fun getBiometricCryptoObject(
         name: String,
         purpose: BiometricCryptographyPurpose?,
@@ -46,7 +59,8 @@ object BiometricCryptoObjectHelper {
     ): BiometricCryptoObject? {
         if (purpose == null)
             return null
-        mutex.tryLock()
+        val lock = aliasLocks.getOrPut(name) { ReentrantLock() }
+        lock.lock()
         try {
             val cipher =
                 when (purpose.purpose) {
@@ -76,7 +90,7 @@ object BiometricCryptoObjectHelper {
         } catch (e: Throwable) {
             throw BiometricCryptoException(e)
         } finally {
-            mutex.unlock()
+            lock.unlock()
         }
 
     }
@@ -0,0 +1,151 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.biometric.compat.crypto
+
+import android.os.SystemClock
+import dev.skomlach.biometric.compat.BiometricCryptoObject
+import dev.skomlach.biometric.compat.BiometricCryptographyPurpose
+import dev.skomlach.biometric.compat.BiometricPromptCompat
+import dev.skomlach.biometric.compat.BiometricType
+import dev.skomlach.biometric.compat.engine.BiometricAuthentication
+import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl
+import dev.skomlach.common.misc.ExecutorHelper
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps initialized (but not yet authenticated) crypto objects prepared in the background,
+ * so the KeyStore loading/key generation does not happen on the prompt path.
+ *
+ * Each prepared object can be taken only once - the Cipher is stateful.
+ * Preparation runs under the per-alias lock of [BiometricCryptoObjectHelper], so a cancelled
+ * warmup that is still running never deletes/regenerates a key concurrently with the prompt path.
+ */
+object CryptoWarmupCache {
+    private val ttl = TimeUnit.MINUTES.toMillis(1)
+    private val entries = ConcurrentHashMap<String, Entry>()
+
+    private class Entry(
+        val purpose: BiometricCryptographyPurpose,
+        val isUserAuthRequired: Boolean,
+        val task: FutureTask<BiometricCryptoObject?>
+    ) {
+        val expiresAt = SystemClock.elapsedRealtime() + ttl
+    }
+
+    /**
+     * Prepare crypto objects for the modules that will be used for the given types
+     */
+    fun warmup(
+        purpose: BiometricCryptographyPurpose,
+        types: () -> Collection<BiometricType>
+    ) {
+        BiometricPromptCompat.awaitReady().invokeOnCompletion {
+            ExecutorHelper.startOnCriticalBackground {
+                try {
+                    for (type in types()) {
+                        val module = BiometricAuthentication.getAvailableBiometricModule(type)
+                        if (module == null || !module.hasEnrolled) continue
+                        prepare(
+                            "BiometricModule${module.tag()}",
+                            purpose,
+                            module.isUserAuthCanByUsedWithCrypto
+                        )
+                    }
+                } catch (e: Throwable) {
+                    BiometricLoggerImpl.e(e, "CryptoWarmupCache")
+                }
+            }
+        }
+    }
+
+    fun prepare(
+        name: String,
+        purpose: BiometricCryptographyPurpose,
+        isUserAuthRequired: Boolean
+    ) {
+        entries[name]?.let {
+            if (it.purpose == purpose && it.isUserAuthRequired == isUserAuthRequired
+                && SystemClock.elapsedRealtime() < it.expiresAt
+            ) return
+        }
+        val task = FutureTask {
+            create(name, purpose, isUserAuthRequired)
+        }
+        entries.put(name, Entry(purpose, isUserAuthRequired, task))?.task?.cancel(false)
+        ExecutorHelper.startOnCriticalBackground(task)
+    }
+
+    /**
+     * @return prepared crypto object or null if nothing prepared/preparation failed;
+     * in the last case caller should fallback to [BiometricCryptoObjectHelper.getBiometricCryptoObject]
+     */
+    fun take(
+        name: String,
+        purpose: BiometricCryptographyPurpose,
+        isUserAuthRequired: Boolean
+    ): BiometricCryptoObject? {
+        val entry = entries.remove(name) ?: return null
+        if (entry.purpose != purpose || entry.isUserAuthRequired != isUserAuthRequired
+            || SystemClock.elapsedRealtime() >= entry.expiresAt
+        ) {
+            entry.task.cancel(false)
+            return null
+        }
+        return try {
+            //no-op if already started; otherwise do not wait for a free worker
+            entry.task.run()
+            entry.task.get()
+        } catch (e: Throwable) {
+            BiometricLoggerImpl.e(e, "CryptoWarmupCache")
+            null
+        }
+    }
+
+    fun invalidate(name: String) {
+        entries.remove(name)?.task?.cancel(false)
+    }
+
+    fun invalidateAll() {
+        for (name in entries.keys) invalidate(name)
+    }
+
+    private fun create(
+        name: String,
+        purpose: BiometricCryptographyPurpose,
+        isUserAuthRequired: Boolean
+    ): BiometricCryptoObject? {
+        val ts = SystemClock.elapsedRealtime()
+        return BiometricCryptoObjectHelper.withAliasLock(name) {
+            try {
+                BiometricCryptoObjectHelper.getBiometricCryptoObject(name, purpose, isUserAuthRequired)
+            } catch (e: BiometricCryptoException) {
+                //Key was permanently invalidated - recreate it, same as on the prompt path
+                if (purpose.purpose == BiometricCryptographyPurpose.ENCRYPT) {
+                    BiometricCryptoObjectHelper.deleteKey(name)
+                    BiometricCryptoObjectHelper.getBiometricCryptoObject(name, purpose, isUserAuthRequired)
+                } else throw e
+            } finally {
+                BiometricLoggerImpl.d("CryptoWarmupCache.create($name) - ts=${SystemClock.elapsedRealtime() - ts} ms")
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import android.app.admin.DevicePolicyManager
 import android.content.Intent
 import android.os.Build
 import android.os.Bundle
+import android.os.SystemClock
 import android.view.SurfaceView
 import dev.skomlach.biometric.compat.AuthenticationFailureReason
 import dev.skomlach.biometric.compat.AuthenticationResult
@@ -55,21 +56,31 @@ import dev.skomlach.biometric.compat.engine.internal.fingerprint.SoterFingerprin
 import dev.skomlach.biometric.compat.engine.internal.fingerprint.SupportFingerprintModule
 import dev.skomlach.biometric.compat.engine.internal.iris.android.AndroidIrisUnlockModule
 import dev.skomlach.biometric.compat.engine.internal.iris.samsung.SamsungIrisUnlockModule
+import dev.skomlach.biometric.compat.utils.BiometricCapabilitySnapshot
 import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl.d
 import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl.e
 import dev.skomlach.common.misc.ExecutorHelper
 import dev.skomlach.common.misc.Utils.startActivity
+import kotlinx.coroutines.CompletableDeferred
 import java.lang.ref.SoftReference
 import java.lang.ref.WeakReference
 import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
 
 object BiometricAuthentication {
+    private val PROBE_DEADLINE = TimeUnit.SECONDS.toMillis(2)
     private val moduleHashMap = Collections
         .synchronizedMap(HashMap<BiometricMethod, BiometricModule>())
 
     private var initInProgress = AtomicBoolean(false)
+
+    //Stays set after the deadline has published the modules, until every probe reports back
+    private val probeInProgress = AtomicBoolean(false)
+    @Volatile
+    private var initReady = CompletableDeferred<Unit>().apply { complete(Unit) }
     private var authInProgress = AtomicBoolean(false)
     private val customModuleHashMap = Collections
         .synchronizedMap(HashMap<BiometricMethod, CustomBiometricProvider>())
@@ -139,19 +150,28 @@ object BiometricAuthentication {
     @JvmOverloads
     fun init(
         globalInitListener: BiometricInitListener? = null,
-        mlist: Collection<BiometricType>? = null
+        mlist: Collection<BiometricType>? = null,
+        useProbeCache: Boolean = false,
+        deadline: Long = PROBE_DEADLINE
     ) {
         if (initInProgress.get())
             return
+        //Modules left behind by the deadline publish themselves once their probe is done
+        if (!probeInProgress.compareAndSet(false, true)) {
+            globalInitListener?.onBiometricReady()
+            return
+        }
         initInProgress.set(true)
-        val ts = System.currentTimeMillis()
+        val ready = CompletableDeferred<Unit>()
+        initReady = ready
+        val ts = SystemClock.elapsedRealtime()
         e("BiometricAuthentication.init() - started")
         //main thread required
         val allMethodsCopy = allMethods.toMutableList()
         customModuleHashMap.toMutableMap().forEach {
             allMethodsCopy.add(it.key)
         }
-        val modulesMap = HashMap<BiometricMethod, BiometricModule?>()
+        val modulesMap = Collections.synchronizedMap(HashMap<BiometricMethod, BiometricModule?>())
         //launch in BG because for init needed about 2-3 seconds
         try {
             val list: MutableList<BiometricMethod>
@@ -165,31 +185,83 @@ object BiometricAuthentication {
                     }
                 }
             }
+            //Skip modules that were missed on the same device/firmware before
+            val knownNegative = if (useProbeCache) BiometricProbeCache.getNegativeMethods() else emptySet()
+            if (knownNegative.isNotEmpty()) {
+                list.removeAll(knownNegative)
+                e("BiometricAuthentication.init() - skipped $knownNegative")
+            }
+            if (list.isEmpty()) {
+                moduleHashMap.clear()
+                BiometricCapabilitySnapshot.invalidate()
+                globalInitListener?.onBiometricReady()
+                finishInit(ready)
+                probeInProgress.set(false)
+                return
+            }
+            val negativeMethods = Collections.synchronizedSet(HashSet<BiometricMethod>(knownNegative))
+            val probeStartTs = ConcurrentHashMap<BiometricMethod, Long>()
+            val isReady = AtomicBoolean(false)
             val counter = AtomicInteger(list.size)
+            val deadlineTask = Runnable {
+                if (isReady.compareAndSet(false, true)) {
+                    moduleHashMap.apply {
+                        clear()
+                        putAll(modulesMap)
+                    }
+                    BiometricCapabilitySnapshot.invalidate()
+                    globalInitListener?.onBiometricReady()
+                    e("BiometricAuthentication.init() - deadline reached; ts=${SystemClock.elapsedRealtime() - ts} ms; pending=${counter.get()}")
+                    finishInit(ready)
+                }
+            }
             val initListener: BiometricInitListener = object : BiometricInitListener {
                 override fun initFinished(method: BiometricMethod, module: BiometricModule?) {
                     val moduleReady =
                         module != null && module.isManagerAccessible && module.isHardwarePresent
-                    val remains = counter.decrementAndGet()
-
+                    probeStartTs.remove(method)?.let {
+                        globalInitListener?.onModuleProbeTime(method, SystemClock.elapsedRealtime() - it)
+                    }
                     if (moduleReady) {
                         modulesMap[method] = module
+                        //Module finished after deadline - publish it anyway
+                        if (isReady.get()) {
+                            moduleHashMap[method] = module
+                            BiometricCapabilitySnapshot.invalidate()
+                        }
+                    } else {
+                        negativeMethods.add(method)
                     }
                     globalInitListener?.initFinished(method, module)
+                    val remains = counter.decrementAndGet()
                     if (remains == 0) {
-                        moduleHashMap.apply {
-                            clear()
-                            putAll(modulesMap)
+                        ExecutorHelper.removeCallbacks(deadlineTask)
+                        //Persist only the complete picture, so slow modules are not treated as missed
+                        if (mlist.isNullOrEmpty())
+                            BiometricProbeCache.setNegativeMethods(
+                                negativeMethods.toSet(),
+                                knownNegative.isEmpty()
+                            )
+                        if (isReady.compareAndSet(false, true)) {
+                            moduleHashMap.apply {
+                                clear()
+                                putAll(modulesMap)
+                            }
+                            BiometricCapabilitySnapshot.invalidate()
+                            globalInitListener?.onBiometricReady()
+                            e("BiometricAuthentication.init() - done; ts=${SystemClock.elapsedRealtime() - ts} ms")
+                            finishInit(ready)
                         }
-                        globalInitListener?.onBiometricReady()
-                        e("BiometricAuthentication.init() - done; ts=${System.currentTimeMillis() - ts} ms")
-                        initInProgress.set(false)
+                        probeInProgress.set(false)
                     }
                 }
 
                 override fun onBiometricReady() {}
             }
+            if (useProbeCache && deadline > 0)
+                ExecutorHelper.postDelayed(deadlineTask, deadline)
             for (method in list) {
+                probeStartTs[method] = SystemClock.elapsedRealtime()
                 initModule(method, initListener)
             }
         } catch (e: Throwable) {
@@ -197,8 +269,13 @@ object BiometricAuthentication {
         }
     }
 
+    private fun finishInit(ready: CompletableDeferred<Unit>) {
+        initInProgress.set(false)
+        ready.complete(Unit)
+    }
+
     private fun initModule(method: BiometricMethod, initListener: BiometricInitListener) {
-        ExecutorHelper.startOnBackground {
+        ExecutorHelper.startOnCriticalBackground {
             e("BiometricAuthentication.check started for $method")
             var biometricModule: BiometricModule? = null
             try {
@@ -329,11 +406,8 @@ object BiometricAuthentication {
         if (authInProgress.get() || requestedMethods.isEmpty()) return
         if(initInProgress.get()){
             val reference = WeakReference(targetView)
-            ExecutorHelper.startOnBackground{
-                while (initInProgress.get()){
-                    Thread.sleep(10)
-                }
-                ExecutorHelper.post{
+            initReady.invokeOnCompletion {
+                ExecutorHelper.post {
                     authenticate(biometricCryptographyPurpose, reference.get(), requestedMethods, listener, bundle)
                 }
             }
@@ -414,7 +488,7 @@ object BiometricAuthentication {
         if (authInProgress.get()) {
             authInProgress.set(false)
             d("BiometricAuthentication.cancelAuthentication")
-            ExecutorHelper.startOnBackground {
+            ExecutorHelper.startOnCriticalBackground {
                 for (method in availableBiometrics) {
                     val biometricModule = getAvailableBiometricModule(method)
                     if (biometricModule is FacelockOldModule) {
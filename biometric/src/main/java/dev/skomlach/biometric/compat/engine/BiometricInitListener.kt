@@ -24,4 +24,5 @@ import dev.skomlach.biometric.compat.engine.core.interfaces.BiometricModule
 interface BiometricInitListener {
     fun initFinished(method: BiometricMethod, module: BiometricModule?)
     fun onBiometricReady()
+    fun onModuleProbeTime(method: BiometricMethod, durationMs: Long) {}
 }
\ No newline at end of file
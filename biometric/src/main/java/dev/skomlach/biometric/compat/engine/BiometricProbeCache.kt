@@ -0,0 +1,102 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.biometric.compat.engine
+
+import android.content.SharedPreferences
+import android.os.Build
+import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl
+import dev.skomlach.common.misc.LastUpdatedTs
+import dev.skomlach.common.storage.SharedPreferenceProvider
+import java.util.concurrent.TimeUnit
+import kotlin.math.abs
+
+/**
+ * Remembers modules that reported "not accessible" or "no hardware" on this device/firmware,
+ * so the next cold start can skip the reflection-heavy probing of missing vendor APIs.
+ *
+ * The cache is dropped as soon as the device fingerprint (Build fields + app update timestamp) changes,
+ * and is ignored once [NEGATIVE_TTL] has passed since the last probe of every module, so a module that
+ * became available without a firmware update (e.g. a vendor service installed later) is found again.
+ */
+internal object BiometricProbeCache {
+    private const val FINGERPRINT_PREF = "fingerprint"
+    private const val NEGATIVE_PREF = "negative"
+    private const val TIMESTAMP_PREF = "timestamp"
+    private val NEGATIVE_TTL = TimeUnit.DAYS.toMillis(7)
+    private val preferences: SharedPreferences =
+        SharedPreferenceProvider.getPreferences("BiometricCompat_ProbeCache")
+
+    private val fingerprint: String by lazy {
+        listOf(
+            Build.FINGERPRINT,
+            Build.MANUFACTURER,
+            Build.BRAND,
+            Build.MODEL,
+            Build.DEVICE,
+            Build.VERSION.SDK_INT.toString(),
+            Build.VERSION.INCREMENTAL,
+            LastUpdatedTs.timestamp.toString()
+        ).joinToString("|")
+    }
+
+    fun getNegativeMethods(): Set<BiometricMethod> {
+        try {
+            val stored = preferences.getString(FINGERPRINT_PREF, null) ?: return emptySet()
+            if (stored != fingerprint) {
+                //Firmware or app update - results of the previous build no longer apply
+                reset()
+                return emptySet()
+            }
+            val timestamp = preferences.getLong(TIMESTAMP_PREF, 0)
+            if (abs(System.currentTimeMillis() - timestamp) > NEGATIVE_TTL)
+                return emptySet()
+            val names = preferences.getStringSet(NEGATIVE_PREF, null) ?: return emptySet()
+            return BiometricMethod.entries.filter {
+                it != BiometricMethod.CUSTOM && names.contains(it.name)
+            }.toSet()
+        } catch (e: Throwable) {
+            BiometricLoggerImpl.e(e, "BiometricProbeCache")
+        }
+        return emptySet()
+    }
+
+    /**
+     * @param probedAll true if no module was skipped by the cache, so the TTL starts over
+     */
+    fun setNegativeMethods(methods: Collection<BiometricMethod>, probedAll: Boolean) {
+        try {
+            val editor = preferences.edit()
+                .putString(FINGERPRINT_PREF, fingerprint)
+                .putStringSet(NEGATIVE_PREF, methods.filter {
+                    it != BiometricMethod.CUSTOM
+                }.map { it.name }.toSet())
+            if (probedAll)
+                editor.putLong(TIMESTAMP_PREF, System.currentTimeMillis())
+            editor.apply()
+        } catch (e: Throwable) {
+            BiometricLoggerImpl.e(e, "BiometricProbeCache")
+        }
+    }
+
+    private fun reset() {
+        BiometricLoggerImpl.d("BiometricProbeCache: device fingerprint changed, dropping cached results")
+        preferences.edit().clear().apply()
+    }
+}
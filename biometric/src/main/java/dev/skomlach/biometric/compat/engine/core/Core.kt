@@ -25,6 +25,7 @@ import dev.skomlach.biometric.compat.BiometricCryptoObject
 import dev.skomlach.biometric.compat.BiometricCryptographyPurpose
 import dev.skomlach.biometric.compat.crypto.BiometricCryptoException
 import dev.skomlach.biometric.compat.crypto.BiometricCryptoObjectHelper
+import dev.skomlach.biometric.compat.crypto.CryptoWarmupCache
 import dev.skomlach.biometric.compat.engine.core.interfaces.AuthenticationListener
 import dev.skomlach.biometric.compat.engine.core.interfaces.BiometricModule
 import dev.skomlach.biometric.compat.engine.core.interfaces.RestartPredicate
@@ -131,7 +132,12 @@ object Core {
 
                 var biometricCryptoObject: BiometricCryptoObject? = null
                 purpose?.let {
-                    try {
+                    biometricCryptoObject = CryptoWarmupCache.take(
+                        "BiometricModule${module.tag()}",
+                        purpose,
+                        m.isUserAuthCanByUsedWithCrypto
+                    )
+                    if (biometricCryptoObject == null) try {
                         biometricCryptoObject =
                             BiometricCryptoObjectHelper.getBiometricCryptoObject(
                                 "BiometricModule${module.tag()}",
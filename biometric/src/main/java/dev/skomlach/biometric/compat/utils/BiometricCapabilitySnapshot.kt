@@ -0,0 +1,189 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.biometric.compat.utils
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.SharedPreferences
+import android.os.SystemClock
+import dev.skomlach.biometric.compat.BiometricApi
+import dev.skomlach.biometric.compat.BiometricAuthRequest
+import dev.skomlach.biometric.compat.BiometricManagerCompat
+import dev.skomlach.biometric.compat.BiometricType
+import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl
+import dev.skomlach.common.contextprovider.AndroidContext
+import dev.skomlach.common.misc.BroadcastTools
+import dev.skomlach.common.misc.ExecutorHelper
+import dev.skomlach.common.storage.SharedPreferenceProvider
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Immutable view of hardware availability, enrollment and lockout for every [BiometricApi] x [BiometricType] pair.
+ *
+ * Built once and reused until one of the invalidation events happens
+ * (enrollment/lockout changes, device unlock, configuration or package changes, init finished).
+ *
+ * Building a snapshot queries every [HardwareAccessImpl] (binder calls, a few ms in total), so lifecycle
+ * events rebuild it on a background worker; [get] builds synchronously only when no fresh snapshot is ready yet.
+ */
+class BiometricCapabilitySnapshot private constructor(
+    private val hardware: BooleanArray,
+    private val enrolled: BooleanArray,
+    private val lockedOut: BooleanArray,
+    private val expiresAt: Long
+) {
+    companion object {
+        private val typesCount = BiometricType.entries.size
+        private val preferences: SharedPreferences =
+            SharedPreferenceProvider.getPreferences("BiometricCompat_ManagerCompat")
+        private val listenersRegistered = AtomicBoolean(false)
+        private val refreshScheduled = AtomicBoolean(false)
+        private val generation = AtomicInteger(0)
+        private val lock = Any()
+
+        @Volatile
+        private var current: BiometricCapabilitySnapshot? = null
+
+        fun get(): BiometricCapabilitySnapshot {
+            current?.let {
+                if (SystemClock.elapsedRealtime() < it.expiresAt)
+                    return it
+            }
+            synchronized(lock) {
+                current?.let {
+                    if (SystemClock.elapsedRealtime() < it.expiresAt)
+                        return it
+                }
+                val gen = generation.get()
+                return build().also {
+                    //Skip the store if something was invalidated while the snapshot was built
+                    if (gen == generation.get())
+                        current = it
+                }
+            }
+        }
+
+        fun invalidate() {
+            generation.incrementAndGet()
+            current = null
+        }
+
+        private fun invalidateAndRefresh() {
+            invalidate()
+            if (refreshScheduled.compareAndSet(false, true))
+                ExecutorHelper.startOnBackground {
+                    refreshScheduled.set(false)
+                    try {
+                        get()
+                    } catch (e: Throwable) {
+                        BiometricLoggerImpl.e(e)
+                    }
+                }
+        }
+
+        fun registerInvalidationListeners() {
+            if (!listenersRegistered.compareAndSet(false, true))
+                return
+            try {
+                val filter = IntentFilter()
+                filter.addAction(Intent.ACTION_PACKAGE_ADDED)
+                filter.addAction(Intent.ACTION_PACKAGE_CHANGED)
+                filter.addAction(Intent.ACTION_PACKAGE_REMOVED)
+                filter.addAction(Intent.ACTION_PACKAGE_REPLACED)
+                filter.addDataScheme("package")
+                BroadcastTools.registerGlobalBroadcastIntent(
+                    AndroidContext.appContext,
+                    object : BroadcastReceiver() {
+                        override fun onReceive(context: Context, intent: Intent) {
+                            invalidateAndRefresh()
+                        }
+                    },
+                    filter
+                )
+                AndroidContext.configurationLiveData.observeForever {
+                    invalidateAndRefresh()
+                }
+                //User may return from the Settings with changed enrollment
+                AndroidContext.resumedActivityLiveData.observeForever {
+                    invalidateAndRefresh()
+                }
+            } catch (e: Throwable) {
+                BiometricLoggerImpl.e(e)
+            }
+        }
+
+        private fun index(api: BiometricApi, type: BiometricType): Int =
+            api.ordinal * typesCount + type.ordinal
+
+        private fun build(): BiometricCapabilitySnapshot {
+            val ts = SystemClock.elapsedRealtime()
+            val size = BiometricApi.entries.size * typesCount
+            val hardware = BooleanArray(size)
+            val enrolled = BooleanArray(size)
+            val lockedOut = BooleanArray(size)
+            val isBiometricAppEnabled = BiometricManagerCompat.isBiometricAppEnabled()
+            var expiresAt = Long.MAX_VALUE
+            val editor = preferences.edit()
+            for (type in BiometricType.entries) {
+                for (api in arrayOf(BiometricApi.LEGACY_API, BiometricApi.BIOMETRIC_API)) {
+                    val hardwareAccess =
+                        HardwareAccessImpl.getInstance(BiometricAuthRequest(api, type))
+                    val i = index(api, type)
+                    hardware[i] = hardwareAccess.isHardwareAvailable
+                    enrolled[i] = isBiometricAppEnabled && hardwareAccess.isBiometricEnrolled
+                    lockedOut[i] = hardwareAccess.isLockedOut
+                }
+                val auto = index(BiometricApi.AUTO, type)
+                val legacy = index(BiometricApi.LEGACY_API, type)
+                val biometric = index(BiometricApi.BIOMETRIC_API, type)
+                hardware[auto] = hardware[legacy] || hardware[biometric]
+                enrolled[auto] = enrolled[legacy] || enrolled[biometric]
+                lockedOut[auto] = lockedOut[legacy] || lockedOut[biometric]
+
+                //Emulated lockout expires by time, so the snapshot should expire too
+                val lockoutEnd = BiometricLockoutFix.getLockoutEndTime(type)
+                if (lockoutEnd > ts && lockoutEnd < expiresAt)
+                    expiresAt = lockoutEnd
+
+                for (api in BiometricApi.entries) {
+                    val i = index(api, type)
+                    editor.putBoolean("isHardwareDetected-$api-$type", hardware[i])
+                        .putBoolean("hasEnrolled-$api-$type", enrolled[i])
+                        .putBoolean("isLockOut-$api-$type", lockedOut[i])
+                }
+            }
+            editor.apply()
+            BiometricLoggerImpl.d { "BiometricCapabilitySnapshot.build() - ts=${SystemClock.elapsedRealtime() - ts} ms" }
+            return BiometricCapabilitySnapshot(hardware, enrolled, lockedOut, expiresAt)
+        }
+    }
+
+    fun isHardwareDetected(request: BiometricAuthRequest): Boolean =
+        hardware[index(request.api, request.type)]
+
+    fun hasEnrolled(request: BiometricAuthRequest): Boolean =
+        enrolled[index(request.api, request.type)]
+
+    fun isLockOut(request: BiometricAuthRequest): Boolean =
+        lockedOut[index(request.api, request.type)]
+}
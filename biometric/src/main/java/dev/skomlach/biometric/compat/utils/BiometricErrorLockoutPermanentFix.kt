@@ -19,74 +19,23 @@
 
 package dev.skomlach.biometric.compat.utils
 
-import android.content.SharedPreferences
-import android.os.SystemClock
 import dev.skomlach.biometric.compat.BiometricType
-import dev.skomlach.common.storage.SharedPreferenceProvider.getPreferences
-import java.util.concurrent.locks.ReentrantLock
-
 
+//Permanent lockout lives in the same table with the temporary one, see BiometricLockoutFix
 object BiometricErrorLockoutPermanentFix {
-    private const val TS_PREF = "user_unlock_device"
-    private val sharedPreferences: SharedPreferences =
-        getPreferences("BiometricCompat_ErrorLockoutPermanentFix")
-    private val lock = ReentrantLock()
     fun setBiometricSensorPermanentlyLocked(type: BiometricType) {
-        try {
-            lock.runCatching { this.lock() }
-            sharedPreferences.edit()
-                .putBoolean(TS_PREF + "-" + type.name, false)
-                .putLong(TS_PREF + "-" + type.name + "-uptime", SystemClock.uptimeMillis())
-                .apply()
-        } finally {
-            lock.runCatching {
-                this.unlock()
-            }
-        }
+        BiometricLockoutFix.lockoutPermanently(type)
     }
 
     fun isRebootDetected(): Boolean {
-        try {
-            lock.runCatching { this.lock() }
-            val keys = sharedPreferences.all.keys.filter {
-                it.contains("-uptime")
-            }
-            var uptimeChanged = false
-            val uptime = SystemClock.uptimeMillis()
-            keys.forEach {
-                val memorizedUptime = sharedPreferences.getLong(it, uptime)
-                uptimeChanged = uptimeChanged || uptime > memorizedUptime
-            }
-            return uptimeChanged
-        } finally {
-            lock.runCatching {
-                this.unlock()
-            }
-        }
+        return BiometricLockoutFix.isRebootDetected
     }
+
     fun resetBiometricSensorPermanentlyLocked() {
-        try {
-            lock.runCatching { this.lock() }
-            sharedPreferences.edit().clear().apply()
-        } finally {
-            lock.runCatching {
-                this.unlock()
-            }
-        }
-        BiometricLockoutFix.reset()
+        BiometricLockoutFix.resetPermanent()
     }
 
     fun isBiometricSensorPermanentlyLocked(type: BiometricType): Boolean {
-        if (isRebootDetected())
-            resetBiometricSensorPermanentlyLocked()
-        try {
-            lock.runCatching { this.lock() }
-
-            return !sharedPreferences.getBoolean(TS_PREF + "-" + type.name, true)
-        } finally {
-            lock.runCatching {
-                this.unlock()
-            }
-        }
+        return BiometricLockoutFix.isLockOutPermanently(type)
     }
-}
\ No newline at end of file
+}
@@ -20,70 +20,219 @@
 package dev.skomlach.biometric.compat.utils
 
 import android.content.SharedPreferences
+import android.os.Build
+import android.os.SystemClock
+import android.provider.Settings
 import dev.skomlach.biometric.compat.BiometricType
 import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl
+import dev.skomlach.common.contextprovider.AndroidContext
+import dev.skomlach.common.misc.ExecutorHelper
 import dev.skomlach.common.storage.SharedPreferenceProvider
+import java.util.EnumSet
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLongArray
 
+/**
+ * In-memory table of temporary and permanent lockouts indexed by [BiometricType.ordinal].
+ *
+ * Values are [SystemClock.elapsedRealtime] timestamps of the lockout (0 - not locked);
+ * the table is written back to SharedPreferences in the background and only when it was changed.
+ */
 object BiometricLockoutFix {
     //LockOut behavior emulated, because for example Meizu API allow to enroll fingerprint unlimited times
-    private const val TS_PREF = "timestamp_"
+    private const val LOCKOUT_PREF = "lockout-"
+    private const val PERMANENT_LOCKOUT_PREF = "permanent_lockout-"
+    private const val ELAPSED_PREF = "elapsed_realtime"
+    private const val BOOT_COUNT_PREF = "boot_count"
+
+    //Storages used before the in-memory table; migrated once and deleted
+    private const val LEGACY_LOCKOUT_STORAGE = "BiometricCompat_Storage"
+    private const val LEGACY_LOCKOUT_PREF = "timestamp_-"
+    private const val LEGACY_PERMANENT_STORAGE = "BiometricCompat_ErrorLockoutPermanentFix"
+    private const val LEGACY_PERMANENT_PREF = "user_unlock_device-"
     private val timeout = TimeUnit.SECONDS.toMillis(31)
+    private val types = BiometricType.entries
     private val preferences: SharedPreferences =
-        SharedPreferenceProvider.getPreferences("BiometricCompat_Storage")
-    private val lock = ReentrantLock()
-    fun reset() {
+        SharedPreferenceProvider.getPreferences("BiometricCompat_LockoutStorage")
+    private val lockouts = AtomicLongArray(types.size)
+    private val permanentLockouts = AtomicLongArray(types.size)
+    private val persistPending = AtomicBoolean(false)
+
+    @Volatile
+    var isRebootDetected = false
+        private set
+
+    init {
         try {
-            lock.runCatching { this.lock() }
-            preferences.edit().clear().apply()
-        } finally {
-            lock.runCatching {
-                this.unlock()
+            migrateLegacyStorage()
+            val now = SystemClock.elapsedRealtime()
+            //elapsedRealtime() is monotonic within a boot, so going backwards means reboot;
+            //unlike wall-clock based boot time it is not affected by the user changing the time
+            if (now < preferences.getLong(ELAPSED_PREF, 0))
+                isRebootDetected = true
+            val storedBootCount = preferences.getInt(BOOT_COUNT_PREF, -1)
+            val bootCount = bootCount()
+            if (storedBootCount != -1 && bootCount != -1 && storedBootCount != bootCount)
+                isRebootDetected = true
+            for (type in types) {
+                val ts = preferences.getLong(LOCKOUT_PREF + type.name, 0)
+                val permanentTs = preferences.getLong(PERMANENT_LOCKOUT_PREF + type.name, 0)
+                if (ts > now || permanentTs > now)
+                    isRebootDetected = true
+                lockouts.set(type.ordinal, ts)
+                permanentLockouts.set(type.ordinal, permanentTs)
             }
+            if (isRebootDetected) {
+                for (i in 0 until types.size) {
+                    lockouts.set(i, 0)
+                    permanentLockouts.set(i, 0)
+                }
+                BiometricLoggerImpl.d("BiometricLockoutFix - reboot detected")
+                persist()
+            }
+        } catch (e: Throwable) {
+            BiometricLoggerImpl.e(e)
         }
     }
 
-    fun lockout(biometricType: BiometricType) {
-        try {
-            lock.runCatching { this.lock() }
-            BiometricLoggerImpl.d("BiometricLockoutFix.setLockout for " + biometricType.name)
-            preferences.edit().putLong(
-                TS_PREF + "-" + biometricType.name,
-                System.currentTimeMillis()
-            ).apply()
-        } finally {
-            lock.runCatching {
-                this.unlock()
+    //Settings.Global.BOOT_COUNT is available since API 24; -1 - unknown
+    private fun bootCount(): Int {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            try {
+                return Settings.Global.getInt(
+                    AndroidContext.appContext.contentResolver,
+                    Settings.Global.BOOT_COUNT,
+                    -1
+                )
+            } catch (e: Throwable) {
+                BiometricLoggerImpl.e(e)
             }
+        return -1
+    }
+
+    private fun migrateLegacyStorage() {
+        val legacyLockouts = SharedPreferenceProvider.getPreferences(LEGACY_LOCKOUT_STORAGE)
+        val legacyPermanent = SharedPreferenceProvider.getPreferences(LEGACY_PERMANENT_STORAGE)
+        if (legacyLockouts.all.isEmpty() && legacyPermanent.all.isEmpty())
+            return
+        val now = SystemClock.elapsedRealtime()
+        val wallNow = System.currentTimeMillis()
+        val uptimeNow = SystemClock.uptimeMillis()
+        val editor = preferences.edit()
+        for (type in types) {
+            //Wall-clock timestamp -> elapsedRealtime; expired lockouts are dropped
+            val ts = legacyLockouts.getLong(LEGACY_LOCKOUT_PREF + type.name, 0)
+            val age = wallNow - ts
+            if (ts > 0 && age in 0 until timeout && now - age > 0)
+                editor.putLong(LOCKOUT_PREF + type.name, now - age)
+            //Permanent lockout stored as `false` + uptimeMillis(); uptime going backwards means reboot
+            val locked = !legacyPermanent.getBoolean(LEGACY_PERMANENT_PREF + type.name, true)
+            val uptime = legacyPermanent.getLong(LEGACY_PERMANENT_PREF + type.name + "-uptime", -1)
+            if (locked && uptime in 0..uptimeNow)
+                editor.putLong(
+                    PERMANENT_LOCKOUT_PREF + type.name,
+                    (now - (uptimeNow - uptime)).coerceIn(1, now)
+                )
+        }
+        editor.commit()
+        SharedPreferenceProvider.deletePreferences(LEGACY_LOCKOUT_STORAGE)
+        SharedPreferenceProvider.deletePreferences(LEGACY_PERMANENT_STORAGE)
+        BiometricLoggerImpl.d("BiometricLockoutFix - legacy storage migrated")
+    }
+
+    private fun persist() {
+        if (!persistPending.compareAndSet(false, true))
+            return
+        ExecutorHelper.startOnBackground {
+            persistPending.set(false)
+            val editor = preferences.edit()
+                .putLong(ELAPSED_PREF, SystemClock.elapsedRealtime())
+                .putInt(BOOT_COUNT_PREF, bootCount())
+            for (type in types) {
+                editor.putLong(LOCKOUT_PREF + type.name, lockouts.get(type.ordinal))
+                    .putLong(PERMANENT_LOCKOUT_PREF + type.name, permanentLockouts.get(type.ordinal))
+            }
+            editor.apply()
         }
+    }
 
+    private fun clear(table: AtomicLongArray): Boolean {
+        var changed = false
+        for (i in 0 until table.length()) {
+            if (table.getAndSet(i, 0) != 0L)
+                changed = true
+        }
+        return changed
     }
 
+    fun reset() {
+        if (clear(lockouts)) {
+            BiometricLoggerImpl.d("BiometricLockoutFix.reset")
+            persist()
+        }
+        BiometricCapabilitySnapshot.invalidate()
+    }
+
+    fun resetPermanent() {
+        isRebootDetected = false
+        val changed = clear(permanentLockouts)
+        if (clear(lockouts) || changed) {
+            BiometricLoggerImpl.d("BiometricLockoutFix.resetPermanent")
+            persist()
+        }
+        BiometricCapabilitySnapshot.invalidate()
+    }
+
+    fun lockout(biometricType: BiometricType) {
+        BiometricLoggerImpl.d("BiometricLockoutFix.setLockout for " + biometricType.name)
+        lockouts.set(biometricType.ordinal, SystemClock.elapsedRealtime())
+        persist()
+        BiometricCapabilitySnapshot.invalidate()
+    }
+
+    fun lockoutPermanently(biometricType: BiometricType) {
+        BiometricLoggerImpl.d("BiometricLockoutFix.setPermanentLockout for " + biometricType.name)
+        permanentLockouts.set(biometricType.ordinal, SystemClock.elapsedRealtime())
+        persist()
+        BiometricCapabilitySnapshot.invalidate()
+    }
 
     fun isLockOut(biometricType: BiometricType): Boolean {
-        try {
-            lock.runCatching { this.lock() }
-            val ts = preferences.getLong(TS_PREF + "-" + biometricType.name, 0)
-            return if (ts > 0) {
-                if (System.currentTimeMillis() - ts >= timeout) {
-                    preferences.edit()
-                        .putLong(TS_PREF + "-" + biometricType.name, 0).apply()
-                    BiometricLoggerImpl.d("BiometricLockoutFix.lockout is FALSE(1) for " + biometricType.name)
-                    false
-                } else {
-                    BiometricLoggerImpl.d("BiometricLockoutFix.lockout is TRUE for " + biometricType.name)
-                    true
-                }
-            } else {
-                BiometricLoggerImpl.d("BiometricLockoutFix.lockout is FALSE(2) for " + biometricType.name)
-                false
-            }
-        } finally {
-            lock.runCatching {
-                this.unlock()
-            }
+        val ts = lockouts.get(biometricType.ordinal)
+        if (ts == 0L)
+            return false
+        if (SystemClock.elapsedRealtime() - ts >= timeout) {
+            //Expired lockouts are not persisted - they are expired after reload as well
+            lockouts.compareAndSet(biometricType.ordinal, ts, 0)
+            return false
+        }
+        return true
+    }
+
+    fun isLockOutPermanently(biometricType: BiometricType): Boolean =
+        permanentLockouts.get(biometricType.ordinal) != 0L
+
+    fun lockedOutTypes(): Set<BiometricType> {
+        val set = EnumSet.noneOf(BiometricType::class.java)
+        for (type in types) {
+            if (isLockOut(type))
+                set.add(type)
         }
+        return set
     }
 
-}
\ No newline at end of file
+    fun isAnyLockedOut(): Boolean {
+        for (type in types) {
+            if (isLockOut(type))
+                return true
+        }
+        return false
+    }
+
+    //In SystemClock.elapsedRealtime() time base; 0 - not locked
+    fun getLockoutEndTime(biometricType: BiometricType): Long {
+        val ts = lockouts.get(biometricType.ordinal)
+        return if (ts > 0) ts + timeout else 0
+    }
+}
@@ -53,6 +53,7 @@ class DeviceUnlockedReceiver : BroadcastReceiver() {
     }
 
     override fun onReceive(context: Context, intent: Intent) {
+        BiometricCapabilitySnapshot.invalidate()
         if (intent.action?.contains("boot", ignoreCase = true) == true) {
             d("Device boot completed")
             BiometricErrorLockoutPermanentFix.resetBiometricSensorPermanentlyLocked()
@@ -22,6 +22,7 @@ package dev.skomlach.biometric.compat.utils
 import androidx.core.os.BuildCompat
 import dev.skomlach.biometric.compat.BiometricApi
 import dev.skomlach.biometric.compat.BiometricAuthRequest
+import dev.skomlach.biometric.compat.crypto.CryptoWarmupCache
 import dev.skomlach.biometric.compat.utils.hardware.BiometricPromptHardware
 import dev.skomlach.biometric.compat.utils.hardware.HardwareInfo
 import dev.skomlach.biometric.compat.utils.hardware.LegacyHardware
@@ -40,6 +41,9 @@ class HardwareAccessImpl private constructor(val biometricAuthRequest: Biometric
 
     fun updateBiometricEnrollChanged() {
         hardwareInfo?.updateBiometricEnrollChanged()
+        BiometricCapabilitySnapshot.invalidate()
+        //keys bound to the previous enrollment are invalidated
+        CryptoWarmupCache.invalidateAll()
     }
 
     private var hardwareInfo: HardwareInfo? = null
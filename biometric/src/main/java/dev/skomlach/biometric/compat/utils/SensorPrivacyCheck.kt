@@ -27,16 +27,19 @@ import android.hardware.SensorPrivacyManager
 import android.hardware.camera2.CameraCharacteristics
 import android.hardware.camera2.CameraManager
 import android.os.Build
+import android.os.Handler
+import android.os.HandlerThread
 import android.os.Process
 import androidx.core.app.AppOpsManagerCompat
 import dev.skomlach.biometric.compat.impl.permissions.SensorBlockedFallbackFragment
 
 import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl
 import dev.skomlach.common.contextprovider.AndroidContext
-import dev.skomlach.common.misc.ExecutorHelper
 import dev.skomlach.common.misc.Utils
 import dev.skomlach.common.permissions.AppOpCompatConstants
 import dev.skomlach.common.permissions.PermissionUtils
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicLong
 
@@ -51,36 +54,37 @@ object SensorPrivacyCheck {
     private var isUiRequested = AtomicBoolean(false)
     private var lastCheckedTime = AtomicLong(0)
     private var lastKnownState = AtomicBoolean(false)
+
+    //Camera callbacks get their own looper: the caller usually blocks a critical-lane worker,
+    //so the callback and unregister work must not queue behind it on the same bounded lane
+    private val cameraHandler: Handler by lazy {
+        val thread = HandlerThread("BiometricCompat-camera")
+        thread.start()
+        Handler(thread.looper)
+    }
+
     fun isCameraInUse(): Boolean {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             if (System.currentTimeMillis() - isCameraInUseTime.get() <= CHECK_TIMEOUT) {
                 return isCameraInUse.get()
             }
-            val ts = System.currentTimeMillis()
             val delay =
                 appContext.resources.getInteger(android.R.integer.config_longAnimTime)
                     .toLong()
-            val isDone = AtomicBoolean(false)
-            //Fix for `Non-fatal Exception: java.lang.IllegalArgumentException: No handler given, and current thread has no looper!`
-            ExecutorHelper.startOnBackground {
-                try {
-
-                    val cameraManager =
-                        appContext.getSystemService(Context.CAMERA_SERVICE) as CameraManager
-                    cameraManager.registerAvailabilityCallback(
-                        ExecutorHelper.backgroundExecutor,
-                        getCameraCallback(cameraManager, isDone)
-                    )
-
-                } catch (e: Throwable) {
-                    BiometricLoggerImpl.e(e)
-                }
+            val isDone = CountDownLatch(1)
+            try {
+                val cameraManager =
+                    appContext.getSystemService(Context.CAMERA_SERVICE) as CameraManager
+                cameraManager.registerAvailabilityCallback(
+                    getCameraCallback(cameraManager, isDone),
+                    cameraHandler
+                )
+            } catch (e: Throwable) {
+                BiometricLoggerImpl.e(e)
             }
-            while (!isDone.get() && System.currentTimeMillis() - ts <= delay) {
-                try {
-                    Thread.sleep(10)
-                } catch (ignore: InterruptedException) {
-                }
+            try {
+                isDone.await(delay, TimeUnit.MILLISECONDS)
+            } catch (ignore: InterruptedException) {
             }
         }
         isCameraInUseTime.set(System.currentTimeMillis())
@@ -91,35 +95,30 @@ object SensorPrivacyCheck {
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     private fun getCameraCallback(
         cameraManager: CameraManager?,
-        isDone: AtomicBoolean
+        isDone: CountDownLatch
     ): CameraManager.AvailabilityCallback {
         return object : CameraManager.AvailabilityCallback() {
+            private val timeout = Runnable {
+                unregisterListener()
+            }
+
             init {
-                ExecutorHelper.startOnBackground(
-                    {
-                        try {
-                            cameraManager?.unregisterAvailabilityCallback(this)
-                        } catch (e: Throwable) {
-                            BiometricLoggerImpl.e(e)
-                        } finally {
-                            isDone.set(true)
-                        }
-                    },
+                cameraHandler.postDelayed(
+                    timeout,
                     appContext.resources.getInteger(android.R.integer.config_longAnimTime)
                         .toLong()
                 )
             }
 
             private fun unregisterListener() {
-                //Fix for `Non-fatal Exception: java.lang.IllegalArgumentException: No handler given, and current thread has no looper!`
-                ExecutorHelper.startOnBackground {
-                    try {
-                        cameraManager?.unregisterAvailabilityCallback(this)
-                    } catch (e: Throwable) {
-                        BiometricLoggerImpl.e(e)
-                    } finally {
-                        isDone.set(true)
-                    }
+                //Runs on cameraHandler, so no `No handler given, and current thread has no looper!`
+                cameraHandler.removeCallbacks(timeout)
+                try {
+                    cameraManager?.unregisterAvailabilityCallback(this)
+                } catch (e: Throwable) {
+                    BiometricLoggerImpl.e(e)
+                } finally {
+                    isDone.countDown()
                 }
             }
 
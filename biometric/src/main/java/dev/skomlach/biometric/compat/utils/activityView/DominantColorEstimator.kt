@@ -0,0 +1,140 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.biometric.compat.utils.activityView
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.graphics.Rect
+import androidx.annotation.VisibleForTesting
+import androidx.core.graphics.ColorUtils
+import dev.skomlach.common.statusbar.ColorUtil
+
+/**
+ * Cheap replacement of Palette's dominant swatch, used to tint the dialog.
+ *
+ * Samples a fixed 8x8 grid of the (already downscaled) screenshot region, drops the colours
+ * Palette's default filter drops (near black, near white, the "red I-line") and returns the mean
+ * of the most populated bucket (3 bits per channel). The result is cached by an average hash of
+ * the samples and recomputed only when more than [HASH_THRESHOLD] bits or the mean luma change.
+ *
+ * This is not Palette's quantizer and its output was not measured against it: 64 samples miss
+ * details between the grid points, and when several colours cover similar areas the two may pick
+ * different ones. The colour is only passed to [ColorUtil.isDark], which picks one of two fixed tints,
+ * so a difference shows up only when it flips that choice.
+ */
+internal class DominantColorEstimator {
+    companion object {
+        private const val GRID = 8
+        const val SAMPLES = GRID * GRID
+        private const val HASH_THRESHOLD = 6
+        private const val LUMA_THRESHOLD = 16
+    }
+
+    private val samples = IntArray(SAMPLES)
+    private val buckets = IntArray(SAMPLES)
+    private val counts = IntArray(512)
+    private val hsl = FloatArray(3)
+    private var hash = 0L
+    private var luma = -1
+    private var color = Color.TRANSPARENT
+
+    /**
+     * @return dominant colour of the [region] of [bitmap], or [Color.TRANSPARENT] if all samples were filtered out
+     */
+    fun estimate(bitmap: Bitmap, region: Rect): Int {
+        for (j in 0 until GRID) {
+            val y = (region.top + (2 * j + 1) * region.height() / (2 * GRID))
+                .coerceIn(0, bitmap.height - 1)
+            for (i in 0 until GRID) {
+                val x = (region.left + (2 * i + 1) * region.width() / (2 * GRID))
+                    .coerceIn(0, bitmap.width - 1)
+                samples[j * GRID + i] = bitmap.getPixel(x, y)
+            }
+        }
+        return estimate(samples)
+    }
+
+    /**
+     * @param samples [SAMPLES] colours of the grid, row by row
+     */
+    @VisibleForTesting
+    internal fun estimate(samples: IntArray): Int {
+        //Average hash: bit i is set when the sample is brighter than the mean
+        var sum = 0
+        for (c in samples)
+            sum += luma(c)
+        val mean = sum / samples.size
+        var newHash = 0L
+        for (i in samples.indices) {
+            if (luma(samples[i]) > mean)
+                newHash = newHash or (1L shl i)
+        }
+        if (luma != -1 && java.lang.Long.bitCount(newHash xor hash) <= HASH_THRESHOLD &&
+            Math.abs(mean - luma) <= LUMA_THRESHOLD
+        )
+            return color
+        hash = newHash
+        luma = mean
+        color = dominant(samples)
+        return color
+    }
+
+    private fun dominant(samples: IntArray): Int {
+        counts.fill(0)
+        var best = -1
+        for (i in samples.indices) {
+            val c = samples[i]
+            buckets[i] = -1
+            ColorUtils.RGBToHSL(red(c), green(c), blue(c), hsl)
+            if (hsl[2] <= 0.05f || hsl[2] >= 0.95f || hsl[0] in 10f..37f && hsl[1] <= 0.82f)
+                continue
+            val bucket = (red(c) shr 5 shl 6) or (green(c) shr 5 shl 3) or (blue(c) shr 5)
+            buckets[i] = bucket
+            counts[bucket]++
+            if (best == -1 || counts[bucket] > counts[best])
+                best = bucket
+        }
+        if (best == -1)
+            return Color.TRANSPARENT
+        var r = 0
+        var g = 0
+        var b = 0
+        for (i in samples.indices) {
+            if (buckets[i] != best)
+                continue
+            val c = samples[i]
+            r += red(c)
+            g += green(c)
+            b += blue(c)
+        }
+        val n = counts[best]
+        return (0xFF shl 24) or (r / n shl 16) or (g / n shl 8) or (b / n)
+    }
+
+    //Plain bit math instead of android.graphics.Color keeps the estimate testable on the JVM
+    private fun red(c: Int): Int = c shr 16 and 0xFF
+
+    private fun green(c: Int): Int = c shr 8 and 0xFF
+
+    private fun blue(c: Int): Int = c and 0xFF
+
+    private fun luma(c: Int): Int =
+        (red(c) * 299 + green(c) * 587 + blue(c) * 114) / 1000
+}
@@ -32,7 +32,9 @@ import android.view.ViewTreeObserver
 import androidx.core.view.ViewCompat
 import dev.skomlach.biometric.compat.R
 import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl
+import dev.skomlach.common.blur.BitmapPool
 import dev.skomlach.common.blur.BlurUtil
+import dev.skomlach.common.blur.DEFAULT_CAPTURE_SCALE
 import dev.skomlach.common.blur.DEFAULT_RADIUS
 import dev.skomlach.common.misc.ExecutorHelper
 import dev.skomlach.common.misc.Utils
@@ -43,17 +45,18 @@ class WindowBackgroundBlurring(
     private var contentView: ViewGroup? = null
     private var v: View? = null
     private var renderEffect: RenderEffect? = null
+    private var shownBitmap: Bitmap? = null
     private var isBlurViewAttachedToHost = false
     private var drawingInProgress = false
     private var biometricsLayout: View? = null
 
     private val attachStateChangeListener = object : View.OnAttachStateChangeListener {
         override fun onViewAttachedToWindow(v: View) {
-            BiometricLoggerImpl.d("${this.javaClass.name}.onViewAttachedToWindow")
+            BiometricLoggerImpl.d { "${this.javaClass.name}.onViewAttachedToWindow" }
         }
 
         override fun onViewDetachedFromWindow(v: View) {
-            BiometricLoggerImpl.d("${this.javaClass.name}.onViewDetachedFromWindow")
+            BiometricLoggerImpl.d { "${this.javaClass.name}.onViewDetachedFromWindow" }
             resetListeners()
         }
     }
@@ -75,7 +78,7 @@ class WindowBackgroundBlurring(
     private fun updateBackground() {
         if (!isBlurViewAttachedToHost || drawingInProgress)
             return
-        BiometricLoggerImpl.d("${this.javaClass.name}.updateBackground")
+        BiometricLoggerImpl.d { "${this.javaClass.name}.updateBackground" }
         try {
             contentView?.let {
                 BlurUtil.takeScreenshotAndBlur(
@@ -87,7 +90,9 @@ class WindowBackgroundBlurring(
                         ) {
                             setDrawable(blurredBitmap)
                         }
-                    })
+                    },
+                    DEFAULT_CAPTURE_SCALE
+                )
             }
         } catch (e: Throwable) {
             BiometricLoggerImpl.e(e)
@@ -96,9 +101,11 @@ class WindowBackgroundBlurring(
 
     @SuppressLint("ClickableViewAccessibility")
     private fun setDrawable(bm: Bitmap?) {
-        if (!isBlurViewAttachedToHost || drawingInProgress)
+        if (!isBlurViewAttachedToHost || drawingInProgress) {
+            BitmapPool.put(bm)
             return
-        BiometricLoggerImpl.d("${this.javaClass.name}.setDrawable")
+        }
+        BiometricLoggerImpl.d { "${this.javaClass.name}.setDrawable" }
         drawingInProgress = true
         try {
             v?.let {
@@ -111,8 +118,10 @@ class WindowBackgroundBlurring(
                                 Shader.TileMode.DECAL
                             )
                     contentView?.setRenderEffect(renderEffect)
-                } else
+                } else {
                     ViewCompat.setBackground(it, BitmapDrawable(it.resources, bm))
+                    swapBlurredBitmap(it, bm)
+                }
             } ?: run {
                 v = LayoutInflater.from(parentView.context)
                     .inflate(R.layout.blurred_screen, null, false).apply {
@@ -134,8 +143,10 @@ class WindowBackgroundBlurring(
                                         Shader.TileMode.DECAL
                                     )
                             contentView?.setRenderEffect(renderEffect)
-                        } else
+                        } else {
                             ViewCompat.setBackground(this, BitmapDrawable(this.resources, bm))
+                            swapBlurredBitmap(this, bm)
+                        }
                         parentView.addView(this)
 
                     }
@@ -148,9 +159,18 @@ class WindowBackgroundBlurring(
         }
     }
 
+    //The previous blurred frame goes back to the pool once the view stops drawing it
+    private fun swapBlurredBitmap(view: View, bm: Bitmap?) {
+        val old = shownBitmap
+        shownBitmap = bm
+        if (old !== bm)
+            BitmapPool.putAfterNextFrame(view, old)
+    }
+
     fun setupListeners() {
         if (isBlurViewAttachedToHost) return
         isBlurViewAttachedToHost = true
+        BitmapPool.retain()
         try {
             updateBackground()
             parentView.addOnAttachStateChangeListener(attachStateChangeListener)
@@ -158,13 +178,15 @@ class WindowBackgroundBlurring(
         } catch (e: Throwable) {
             BiometricLoggerImpl.e(e)
         }
-        BiometricLoggerImpl.d("${this.javaClass.name}.setupListeners")
+        BiometricLoggerImpl.d { "${this.javaClass.name}.setupListeners" }
 
     }
 
     fun resetListeners() {
         if (!isBlurViewAttachedToHost) return
         isBlurViewAttachedToHost = false
+        shownBitmap = null
+        BitmapPool.release()
         try {
             parentView.removeOnAttachStateChangeListener(attachStateChangeListener)
             parentView.viewTreeObserver.removeOnPreDrawListener(onDrawListener)
@@ -189,7 +211,7 @@ class WindowBackgroundBlurring(
                 BiometricLoggerImpl.e(e)
             }
         }
-        BiometricLoggerImpl.d("${this.javaClass.name}.resetListeners")
+        BiometricLoggerImpl.d { "${this.javaClass.name}.resetListeners" }
     }
 
 }
\ No newline at end of file
@@ -39,7 +39,6 @@ import androidx.lifecycle.LifecycleEventObserver
 import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.findViewTreeLifecycleOwner
 import androidx.core.view.doOnAttach
-import androidx.palette.graphics.Palette
 import dev.skomlach.biometric.compat.BiometricAuthRequest
 import dev.skomlach.biometric.compat.BiometricManagerCompat
 import dev.skomlach.biometric.compat.BiometricPromptCompat
@@ -48,7 +47,9 @@ import dev.skomlach.biometric.compat.R
 import dev.skomlach.biometric.compat.utils.DialogMainColor
 import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl
 import dev.skomlach.biometric.compat.utils.themes.DarkLightThemes
+import dev.skomlach.common.blur.BitmapPool
 import dev.skomlach.common.blur.BlurUtil
+import dev.skomlach.common.blur.DEFAULT_CAPTURE_SCALE
 import dev.skomlach.common.blur.DEFAULT_RADIUS
 import dev.skomlach.common.misc.ExecutorHelper
 import dev.skomlach.common.misc.Utils
@@ -65,6 +66,8 @@ class WindowForegroundBlurring(
     private var contentView: ViewGroup? = null
     private var v: View? = null
     private var renderEffect: RenderEffect? = null
+    private var shownBitmap: Bitmap? = null
+    private val dominantColorEstimator = DominantColorEstimator()
 
     @Volatile
     private var isBlurViewAttachedToHost = false
@@ -93,11 +96,11 @@ class WindowForegroundBlurring(
 
     private val attachStateChangeListener = object : View.OnAttachStateChangeListener {
         override fun onViewAttachedToWindow(v: View) {
-            BiometricLoggerImpl.d("${this.javaClass.name}.onViewAttachedToWindow")
+            BiometricLoggerImpl.d { "${this.javaClass.name}.onViewAttachedToWindow" }
         }
 
         override fun onViewDetachedFromWindow(v: View) {
-            BiometricLoggerImpl.d("${this.javaClass.name}.onViewDetachedFromWindow")
+            BiometricLoggerImpl.d { "${this.javaClass.name}.onViewDetachedFromWindow" }
             forceToCloseCallback.onCloseBiometric()
         }
     }
@@ -159,7 +162,7 @@ class WindowForegroundBlurring(
         if (!drawingInProgress.get()) {
             drawingInProgress.set(true)
 
-            BiometricLoggerImpl.d("${this.javaClass.name}.updateBackground")
+            BiometricLoggerImpl.d { "${this.javaClass.name}.updateBackground" }
             try {
                 contentView?.let {
                     BlurUtil.takeScreenshotAndBlur(
@@ -169,12 +172,16 @@ class WindowForegroundBlurring(
                                 originalBitmap: Bitmap,
                                 blurredBitmap: Bitmap?
                             ) {
-                                if (!isBlurViewAttachedToHost)
+                                if (!isBlurViewAttachedToHost) {
+                                    BitmapPool.put(blurredBitmap)
                                     return
+                                }
                                 setDrawable(blurredBitmap)
                                 updateDefaultColor(originalBitmap)
                             }
-                        })
+                        },
+                        DEFAULT_CAPTURE_SCALE
+                    )
                 }
             } catch (e: Throwable) {
                 BiometricLoggerImpl.e(e)
@@ -184,7 +191,7 @@ class WindowForegroundBlurring(
 
 
     private fun setDrawable(bm: Bitmap?) {
-        BiometricLoggerImpl.d("${this.javaClass.name}.setDrawable")
+        BiometricLoggerImpl.d { "${this.javaClass.name}.setDrawable" }
         try {
             v?.let {
                 if (Utils.isAtLeastS) {
@@ -196,8 +203,10 @@ class WindowForegroundBlurring(
                                 Shader.TileMode.DECAL
                             )
                     contentView?.setRenderEffect(renderEffect)
-                } else
+                } else {
                     ViewCompat.setBackground(it, BitmapDrawable(it.resources, bm))
+                    swapBlurredBitmap(it, bm)
+                }
             }
         } catch (e: Throwable) {
             BiometricLoggerImpl.e(e)
@@ -208,9 +217,18 @@ class WindowForegroundBlurring(
         }, context.resources.getInteger(android.R.integer.config_shortAnimTime).toLong())
     }
 
+    //The previous blurred frame goes back to the pool once the view stops drawing it
+    private fun swapBlurredBitmap(view: View, bm: Bitmap?) {
+        val old = shownBitmap
+        shownBitmap = bm
+        if (old !== bm)
+            BitmapPool.putAfterNextFrame(view, old)
+    }
+
     fun setupListeners() {
         if (isBlurViewAttachedToHost) return
         isBlurViewAttachedToHost = true
+        BitmapPool.retain()
         try {
             v?.apply {
                 parentView.addView(this)
@@ -235,13 +253,15 @@ class WindowForegroundBlurring(
         } catch (e: Throwable) {
             BiometricLoggerImpl.e(e)
         }
-        BiometricLoggerImpl.d("${this.javaClass.name}.setupListeners")
+        BiometricLoggerImpl.d { "${this.javaClass.name}.setupListeners" }
 
     }
 
     fun resetListeners() {
         if (!isBlurViewAttachedToHost) return
         isBlurViewAttachedToHost = false
+        shownBitmap = null
+        BitmapPool.release()
         try {
             parentView.removeOnAttachStateChangeListener(attachStateChangeListener)
             parentView.viewTreeObserver.removeOnPreDrawListener(onDrawListener)
@@ -267,12 +287,12 @@ class WindowForegroundBlurring(
             }
         }
         IconStateHelper.unregisterListener(this)
-        BiometricLoggerImpl.d("${this.javaClass.name}.resetListeners")
+        BiometricLoggerImpl.d { "${this.javaClass.name}.resetListeners" }
 
     }
 
     private fun updateBiometricIconsLayout() {
-        BiometricLoggerImpl.d("${this.javaClass.name}.updateBiometricIconsLayout")
+        BiometricLoggerImpl.d { "${this.javaClass.name}.updateBiometricIconsLayout" }
         try {
             biometricsLayout?.let { bmLayout ->
                 val list = this.biometricTypesList
@@ -333,68 +353,66 @@ class WindowForegroundBlurring(
     }
 
     private fun updateDefaultColor(bm: Bitmap) {
-        BiometricLoggerImpl.d("${this.javaClass.name}.updateDefaultColor")
+        BiometricLoggerImpl.d { "${this.javaClass.name}.updateDefaultColor" }
         try {
             val rect = Rect()
             biometricsLayout?.getGlobalVisibleRect(rect)
 
             if(rect.isEmpty) return
-            val newBm = Bitmap.createBitmap(bm,
-                rect.left,
-                rect.top,
-                rect.width(),
-                rect.height()
-            )
-            BiometricLoggerImpl.d("${this.javaClass.name}.updateDefaultColor $rect")
-            Palette.from(newBm).generate { palette ->
-                try {
-                    val paletteDefColor =
-                        palette?.getDominantColor(Color.TRANSPARENT)?.also { color ->
-                            BiometricLoggerImpl.e(
-                                "${this.javaClass.name}.updateDefaultColor#0 isDark - ${
-                                    ColorUtil.isDark(
-                                        color
-                                    )
-                                }; color - ${
-                                    Integer.toHexString(
-                                        color
-                                    )
-                                }"
-                            )
-                        } ?: Color.TRANSPARENT
-
-                    defaultColor = if(paletteDefColor != Color.TRANSPARENT){
-                        val isDark = ColorUtil.isDark(paletteDefColor)
-                        DialogMainColor.getColor(context, !isDark)
-                    } else{
-                        val isDark = DarkLightThemes.isNightMode(compatBuilder.getContext())
-                        DialogMainColor.getColor(context, !isDark)
+            //The rect is in window coordinates, the screenshot is a downscaled capture of contentView
+            val captured = contentView ?: return
+            val origin = IntArray(2)
+            captured.getLocationInWindow(origin)
+            rect.offset(-origin[0], -origin[1])
+            val scale = bm.width.toFloat() / (captured.width.takeIf { it > 0 } ?: bm.width)
+            val left = (rect.left * scale).toInt().coerceIn(0, bm.width - 1)
+            val top = (rect.top * scale).toInt().coerceIn(0, bm.height - 1)
+            val width = (rect.width() * scale).toInt().coerceIn(1, bm.width - left)
+            val height = (rect.height() * scale).toInt().coerceIn(1, bm.height - top)
+            BiometricLoggerImpl.d { "${this.javaClass.name}.updateDefaultColor $rect" }
+            val dominantColor =
+                dominantColorEstimator.estimate(bm, Rect(left, top, left + width, top + height))
+                    .also { color ->
+                        BiometricLoggerImpl.e(
+                            "${this.javaClass.name}.updateDefaultColor#0 isDark - ${
+                                ColorUtil.isDark(
+                                    color
+                                )
+                            }; color - ${
+                                Integer.toHexString(
+                                    color
+                                )
+                            }"
+                        )
                     }
 
-                    BiometricLoggerImpl.d(
-                        "${this.javaClass.name}.updateDefaultColor#2 isDark - ${
-                            ColorUtil.isDark(
-                                defaultColor
-                            )
-                        }; color - ${
-                            Integer.toHexString(
-                                defaultColor
-                            )
-                        }"
-                    )
-                    updateIcons()
-                } catch (e: Throwable) {
-                    BiometricLoggerImpl.e(e)
-                }
+            defaultColor = if(dominantColor != Color.TRANSPARENT){
+                val isDark = ColorUtil.isDark(dominantColor)
+                DialogMainColor.getColor(context, !isDark)
+            } else{
+                val isDark = DarkLightThemes.isNightMode(compatBuilder.getContext())
+                DialogMainColor.getColor(context, !isDark)
             }
 
+            BiometricLoggerImpl.d(
+                "${this.javaClass.name}.updateDefaultColor#2 isDark - ${
+                    ColorUtil.isDark(
+                        defaultColor
+                    )
+                }; color - ${
+                    Integer.toHexString(
+                        defaultColor
+                    )
+                }"
+            )
+            updateIcons()
         } catch (e: Throwable) {
             BiometricLoggerImpl.e(e)
         }
     }
 
     private fun updateIcons() {
-        BiometricLoggerImpl.d("${this.javaClass.name}.updateIcons")
+        BiometricLoggerImpl.d { "${this.javaClass.name}.updateIcons" }
         try {
             biometricsLayout?.let { bmLayout ->
 
@@ -468,7 +486,7 @@ class WindowForegroundBlurring(
     }
 
     private fun setIconState(type: BiometricType?, iconStates: IconStates?) {
-        BiometricLoggerImpl.d("${this.javaClass.name}.setIconState $type=$iconStates")
+        BiometricLoggerImpl.d { "${this.javaClass.name}.setIconState $type=$iconStates" }
         try {
             biometricsLayout?.let { bmLayout ->
                 val color = if (iconStates == null) defaultColor else when (iconStates) {
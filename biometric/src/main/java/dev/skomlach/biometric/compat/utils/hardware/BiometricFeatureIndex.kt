@@ -0,0 +1,132 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.biometric.compat.utils.hardware
+
+import android.content.SharedPreferences
+import android.content.pm.PackageManager
+import android.os.Build
+import dev.skomlach.biometric.compat.BiometricType
+import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl
+import dev.skomlach.common.contextprovider.AndroidContext
+import dev.skomlach.common.misc.ExecutorHelper
+import dev.skomlach.common.storage.SharedPreferenceProvider
+import java.lang.reflect.Modifier
+
+/**
+ * Bitmask of biometric feature families declared by the device (see [PackageManager.hasSystemFeature]).
+ *
+ * Built once per firmware: the reflection over [PackageManager] fields and the feature IPCs
+ * are repeated only when [Build.FINGERPRINT] changes.
+ */
+object BiometricFeatureIndex {
+    private const val FINGERPRINT_PREF = "fingerprint"
+    private const val MASK_PREF = "mask"
+    private val preferences: SharedPreferences =
+        SharedPreferenceProvider.getPreferences("BiometricCompat_FeatureIndex")
+    private val firmware: String
+        get() = "${Build.FINGERPRINT}|${Build.VERSION.SDK_INT}|${Build.VERSION.INCREMENTAL}"
+
+    @Volatile
+    private var mask: Int = -1
+
+    fun prefetch() {
+        if (mask == -1)
+            ExecutorHelper.startOnBackground {
+                getMask()
+            }
+    }
+
+    fun hasFeature(type: BiometricType): Boolean =
+        getMask() and (1 shl type.ordinal) != 0
+
+    private fun getMask(): Int {
+        mask.let {
+            if (it != -1) return it
+        }
+        synchronized(this) {
+            if (mask != -1)
+                return mask
+            val firmware = firmware
+            var value = -1
+            try {
+                if (preferences.getString(FINGERPRINT_PREF, null) == firmware)
+                    value = preferences.getInt(MASK_PREF, -1)
+            } catch (e: Throwable) {
+                BiometricLoggerImpl.e(e)
+            }
+            if (value == -1) {
+                value = buildMask()
+                preferences.edit()
+                    .putString(FINGERPRINT_PREF, firmware)
+                    .putInt(MASK_PREF, value)
+                    .apply()
+            }
+            mask = value
+            return value
+        }
+    }
+
+    private fun buildMask(): Int {
+        var result = 0
+        try {
+            val packageManager = AndroidContext.appContext.packageManager
+            val fields = PackageManager::class.java.fields
+            for (f in fields) {
+                if (Modifier.isStatic(f.modifiers) && f.type == String::class.java) {
+                    val name = f[null] as String? ?: continue
+                    val isAOSP = name.contains(".hardware.") && !name.contains(".sensor.")
+                    val isOEM = name.startsWith("com.") && !name.contains(".sensor.")
+                    if (!isAOSP && !isOEM)
+                        continue
+                    val types = getFeatureTypes(name)
+                    //skip the IPC if all matched types are already known
+                    if (types == 0 || result and types == types)
+                        continue
+                    if (packageManager.hasSystemFeature(name)) {
+                        BiometricLoggerImpl.d("BiometricFeatureIndex - $name")
+                        result = result or types
+                    }
+                }
+            }
+        } catch (e: Throwable) {
+            BiometricLoggerImpl.e(e)
+        }
+        return result
+    }
+
+    private val typeSuffixes = mapOf(
+        BiometricType.BIOMETRIC_FINGERPRINT to "fingerprint",
+        BiometricType.BIOMETRIC_FACE to "face",
+        BiometricType.BIOMETRIC_IRIS to "iris",
+        BiometricType.BIOMETRIC_PALMPRINT to "palm",
+        BiometricType.BIOMETRIC_VOICE to "voice",
+        BiometricType.BIOMETRIC_HEARTRATE to "heartrate"
+    )
+
+    //".biometric" features match the filter, but do not point to any specific type
+    private fun getFeatureTypes(name: String): Int {
+        var types = 0
+        for ((type, suffix) in typeSuffixes) {
+            if (name.endsWith(".$suffix") || name.contains(".$suffix."))
+                types = types or (1 shl type.ordinal)
+        }
+        return types
+    }
+}
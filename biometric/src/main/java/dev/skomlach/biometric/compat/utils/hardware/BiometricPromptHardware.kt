@@ -20,7 +20,6 @@
 package dev.skomlach.biometric.compat.utils.hardware
 
 import android.annotation.TargetApi
-import android.content.pm.PackageManager
 import android.os.Build
 import android.security.keystore.KeyGenParameterSpec
 import android.security.keystore.KeyPermanentlyInvalidatedException
@@ -35,7 +34,6 @@ import dev.skomlach.biometric.compat.utils.logging.BiometricLoggerImpl.e
 import dev.skomlach.common.contextprovider.AndroidContext
 import dev.skomlach.common.storage.SharedPreferenceProvider
 import kotlinx.coroutines.sync.Mutex
-import java.lang.reflect.Modifier
 import java.security.InvalidKeyException
 import java.security.KeyStore
 import javax.crypto.Cipher
@@ -48,45 +46,6 @@ class BiometricPromptHardware(authRequest: BiometricAuthRequest) :
     AbstractHardware(authRequest) {
     private val appContext = AndroidContext.appContext
     private val mutex = Mutex()
-    private val biometricFeatures: ArrayList<String>
-        get() {
-            val list = ArrayList<String>()
-            try {
-                val fields = PackageManager::class.java.fields
-                for (f in fields) {
-                    if (Modifier.isStatic(f.modifiers) && f.type == String::class.java) {
-                        (f[null] as String?)?.let { name ->
-
-                            val isAOSP = name.contains(".hardware.") && !name.contains(".sensor.")
-                            val isOEM = name.startsWith("com.") && !name.contains(".sensor.")
-                            if ((isAOSP || isOEM) && (
-                                        name.endsWith(".fingerprint")
-                                                || name.endsWith(".face")
-                                                || name.endsWith(".iris")
-                                                || name.endsWith(".biometric")
-                                                || name.endsWith(".palm")
-                                                || name.endsWith(".voice")
-                                                || name.endsWith(".heartrate")
-                                                || name.contains(".fingerprint.")
-                                                || name.contains(".face.")
-                                                || name.contains(".iris.")
-                                                || name.contains(".biometric.")
-                                                || name.contains(".palm.")
-                                                || name.contains(".voice.")
-                                                || name.contains(".heartrate.")
-                                        )
-                            ) {
-                                list.add(name)
-                            }
-                        }
-                    }
-                }
-            } catch (e: Throwable) {
-                e(e)
-            }
-            list.sort()
-            return list
-        }
     private val canAuthenticate: Int
         get() {
             var code = BiometricManager.BIOMETRIC_ERROR_NO_HARDWARE
@@ -170,11 +129,7 @@ class BiometricPromptHardware(authRequest: BiometricAuthRequest) :
     private val isAnyLockedOut: Boolean
         get() {
             if (canAuthenticate == BiometricManager.BIOMETRIC_ERROR_HW_UNAVAILABLE) return true
-            for (type in BiometricType.entries) {
-                if (BiometricLockoutFix.isLockOut(type))
-                    return true
-            }
-            return false
+            return BiometricLockoutFix.isAnyLockedOut()
         }//legacy
 
     //OK to check in this way
@@ -184,30 +139,7 @@ class BiometricPromptHardware(authRequest: BiometricAuthRequest) :
                 BiometricAuthentication.getAvailableBiometricModule(type)?.isHardwarePresent == true)
                 return true
             //legacy
-            val packageManager = appContext.packageManager
-            for (f in biometricFeatures) {
-                if (packageManager.hasSystemFeature(f)) {
-                    if ((f.endsWith(".fingerprint") || f.contains(".fingerprint.")) &&
-                        type == BiometricType.BIOMETRIC_FINGERPRINT
-                    ) return true
-                    if ((f.endsWith(".face") || f.contains(".face.")) &&
-                        type == BiometricType.BIOMETRIC_FACE
-                    ) return true
-                    if ((f.endsWith(".iris") || f.contains(".iris.")) &&
-                        type == BiometricType.BIOMETRIC_IRIS
-                    ) return true
-                    if ((f.endsWith(".palm") || f.contains(".palm.")) &&
-                        type == BiometricType.BIOMETRIC_PALMPRINT
-                    ) return true
-                    if ((f.endsWith(".voice") || f.contains(".voice.")) &&
-                        type == BiometricType.BIOMETRIC_VOICE
-                    ) return true
-                    if ((f.endsWith(".heartrate") || f.contains(".heartrate.")) &&
-                        type == BiometricType.BIOMETRIC_HEARTRATE
-                    ) return true
-                }
-            }
-
+            return BiometricFeatureIndex.hasFeature(type)
         }
         return false
     }
@@ -236,7 +168,7 @@ class BiometricPromptHardware(authRequest: BiometricAuthRequest) :
             val probablyOtherLabel =
                 biometricManager.getStrings(BiometricManager.Authenticators.BIOMETRIC_WEAK)?.buttonLabel
 
-            BiometricLoggerImpl.d("probablyFingerprintLabel=$probablyFingerprintLabel; probablyOtherLabel=$probablyOtherLabel")
+            BiometricLoggerImpl.d { "probablyFingerprintLabel=$probablyFingerprintLabel; probablyOtherLabel=$probablyOtherLabel" }
             if (BiometricAuthentication.getAvailableBiometricModule(BiometricType.BIOMETRIC_FINGERPRINT)?.hasEnrolled == true) {
                 if (!probablyFingerprintLabel.isNullOrEmpty() && !probablyOtherLabel.isNullOrEmpty()) {
                     return probablyFingerprintLabel != probablyOtherLabel
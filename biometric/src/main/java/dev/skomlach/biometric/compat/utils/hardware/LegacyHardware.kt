@@ -46,10 +46,8 @@ class LegacyHardware(authRequest: BiometricAuthRequest) : AbstractHardware(authR
     override val isLockedOut: Boolean
         get() {
             if (biometricAuthRequest.type == BiometricType.BIOMETRIC_ANY) {
-                for (type in BiometricType.entries) {
-                    if (BiometricLockoutFix.isLockOut(type))
-                        return true
-                }
+                if (BiometricLockoutFix.isAnyLockedOut())
+                    return true
                 return BiometricAuthentication.isLockOut
             } else {
                 if (BiometricLockoutFix.isLockOut(biometricAuthRequest.type))
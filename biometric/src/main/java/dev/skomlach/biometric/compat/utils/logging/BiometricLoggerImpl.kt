@@ -21,28 +21,52 @@ package dev.skomlach.biometric.compat.utils.logging
 
 import android.util.Log
 import dev.skomlach.biometric.compat.BuildConfig
+import dev.skomlach.common.logging.LogRingBuffer
 
 
 object BiometricLoggerImpl {
     var DEBUG = BuildConfig.DEBUG
     var externalLogger: ExternalLogger? = null
+
+    //Minimal level (android.util.Log priority) for the messages
+    var LEVEL = Log.DEBUG
+
+    //Caller info requires a stack walk, so it is opt-in
+    var CALLER_INFO = false
+    private val buffer = LogRingBuffer(256) { record ->
+        val logger = externalLogger ?: return@LogRingBuffer
+        val m = arrayOf("BiometricLogging", record.caller, *record.msgs)
+        when (record.level) {
+            Log.ERROR -> if (record.throwable != null)
+                logger.logException(record.throwable, *m)
+            else
+                logger.logError(*m)
+
+            else -> logger.log(*m)
+        }
+    }
     private val method: String
         get() {
             val elements = Thread.currentThread().stackTrace
-            val el = elements[3]
+            val el = elements[4]
             return el.className + ":" + el.methodName + ", " + el.fileName + ":" + el.lineNumber
         }
 
+    fun isLoggable(level: Int): Boolean =
+        (DEBUG || externalLogger != null) && level >= LEVEL
+
+    inline fun d(msg: () -> Any?) {
+        if (isLoggable(Log.DEBUG)) d(msg())
+    }
+
+    inline fun e(msg: () -> Any?) {
+        if (isLoggable(Log.ERROR)) e(msg())
+    }
 
     fun e(vararg msgs: Any?) {
-        externalLogger?.let { logger ->
-            val m = mutableListOf(*msgs).also {
-                it.add(0, "BiometricLogging")
-                it.add(1, method)
-            }
-            logger.logError(*m.toTypedArray())
-        }
-        if (DEBUG) Log.e("BiometricLogging", listOf(*msgs).toString())
+        if (!isLoggable(Log.ERROR)) return
+        enqueue(Log.ERROR, null, msgs)
+        if (DEBUG) Log.e("BiometricLogging", msgs.contentToString())
     }
 
     fun e(e: Throwable) {
@@ -51,26 +75,21 @@ object BiometricLoggerImpl {
 
 
     fun e(e: Throwable?, vararg msgs: Any?) {
-        externalLogger?.let { logger ->
-            val m = mutableListOf(*msgs).also {
-                it.add(0, "BiometricLogging")
-                it.add(1, method)
-            }
-            logger.logException(e, *m.toTypedArray())
-        }
-        if (DEBUG) Log.e("BiometricLogging", listOf(*msgs).toString(), e)
+        if (!isLoggable(Log.ERROR)) return
+        enqueue(Log.ERROR, e, msgs)
+        if (DEBUG) Log.e("BiometricLogging", msgs.contentToString(), e)
     }
 
 
     fun d(vararg msgs: Any?) {
-        externalLogger?.let { logger ->
-            val m = mutableListOf(*msgs).also {
-                it.add(0, "BiometricLogging")
-                it.add(1, method)
-            }
-            logger.log(*m.toTypedArray())
-        }
-        if (DEBUG) Log.d("BiometricLogging", listOf(*msgs).toString())
+        if (!isLoggable(Log.DEBUG)) return
+        enqueue(Log.DEBUG, null, msgs)
+        if (DEBUG) Log.d("BiometricLogging", msgs.contentToString())
+    }
+
+    private fun enqueue(level: Int, e: Throwable?, msgs: Array<out Any?>) {
+        if (externalLogger != null)
+            buffer.add(level, e, if (CALLER_INFO) method else null, msgs)
     }
 
     interface ExternalLogger {
@@ -78,4 +97,4 @@ object BiometricLoggerImpl {
         fun logError(vararg msgs: Any?)
         fun logException(e: Throwable?, vararg msgs: Any?)
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.biometric.compat.utils.activityView
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Runs [DominantColorEstimator] over synthetic sample grids.
+ */
+class DominantColorEstimatorTest {
+    companion object {
+        private const val BLUE = 0xFF2040C0.toInt() //luma 69
+        private const val CRIMSON = 0xFF8C2040.toInt() //luma 67
+        private const val GREEN = 0xFF30A030.toInt() //luma 113
+        private const val LIGHT_BLUE = 0xFF4060E0.toInt() //luma 101
+        private const val LIGHT_GREEN = 0xFF50C050.toInt() //luma 145
+        private const val BLACK = 0xFF000000.toInt()
+        private const val WHITE = 0xFFFFFFFF.toInt()
+        private const val ORANGE_GREY = 0xFF997755.toInt() //hue 30, saturation 0.29 - the "red I-line"
+    }
+
+    //first `first` samples of colour a, the rest of colour b
+    private fun grid(a: Int, first: Int, b: Int): IntArray =
+        IntArray(DominantColorEstimator.SAMPLES) { if (it < first) a else b }
+
+    @Test
+    fun mostPopulatedBucketWins() {
+        assertEquals(BLUE, DominantColorEstimator().estimate(grid(BLUE, 40, GREEN)))
+        assertEquals(GREEN, DominantColorEstimator().estimate(grid(BLUE, 20, GREEN)))
+    }
+
+    @Test
+    fun bucketMeanIsReturned() {
+        //both colours fall into the same 3-bit bucket
+        val samples = grid(0xFF2040C0.toInt(), 32, 0xFF2444C4.toInt())
+
+        assertEquals(0xFF2242C2.toInt(), DominantColorEstimator().estimate(samples))
+    }
+
+    @Test
+    fun paletteFilteredColoursAreSkipped() {
+        assertEquals(CRIMSON, DominantColorEstimator().estimate(grid(WHITE, 50, CRIMSON)))
+        assertEquals(CRIMSON, DominantColorEstimator().estimate(grid(BLACK, 50, CRIMSON)))
+        assertEquals(CRIMSON, DominantColorEstimator().estimate(grid(ORANGE_GREY, 50, CRIMSON)))
+    }
+
+    @Test
+    fun allFilteredGivesTransparent() {
+        assertEquals(0, DominantColorEstimator().estimate(grid(BLACK, 32, WHITE)))
+    }
+
+    @Test
+    fun similarFrameReturnsCachedColour() {
+        val estimator = DominantColorEstimator()
+        assertEquals(BLUE, estimator.estimate(grid(BLUE, 40, GREEN)))
+
+        //same brightness pattern, but crimson now outnumbers blue
+        val similar = grid(BLUE, 40, GREEN)
+        similar.fill(CRIMSON, 0, 30)
+        assertEquals(CRIMSON, DominantColorEstimator().estimate(similar))
+        assertEquals(BLUE, estimator.estimate(similar))
+    }
+
+    @Test
+    fun changedPatternIsRecomputed() {
+        val estimator = DominantColorEstimator()
+        assertEquals(BLUE, estimator.estimate(grid(BLUE, 40, GREEN)))
+
+        //the bright samples moved, so most bits of the hash differ
+        assertEquals(GREEN, estimator.estimate(grid(GREEN, 44, BLUE)))
+    }
+
+    @Test
+    fun brighterFrameIsRecomputed() {
+        val estimator = DominantColorEstimator()
+        assertEquals(BLUE, estimator.estimate(grid(BLUE, 40, GREEN)))
+
+        //same hash, mean luma up by 32
+        assertEquals(LIGHT_BLUE, estimator.estimate(grid(LIGHT_BLUE, 40, LIGHT_GREEN)))
+    }
+}
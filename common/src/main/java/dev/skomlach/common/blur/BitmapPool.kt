@@ -0,0 +1,210 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.blur
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import android.graphics.Rect
+import android.os.Build
+import android.view.View
+import android.view.ViewTreeObserver
+import dev.skomlach.common.logging.LogCat
+
+/**
+ * Bounded pool of mutable bitmaps for the screenshot/blur pipeline.
+ *
+ * Bitmaps are kept in power-of-two buckets by allocation size and handed out again via
+ * [Bitmap.reconfigure], so a dialog that blurs the same window on every frame stops
+ * allocating after the first frames. Users [retain] the pool while visible; the last [release] empties it.
+ */
+object BitmapPool {
+    private val maxBytes = (Runtime.getRuntime().maxMemory() / 8).coerceAtMost(32L * 1024 * 1024)
+
+    //ceil(log2(allocation size)) -> bitmaps
+    private val buckets = HashMap<Int, ArrayDeque<Bitmap>>()
+    private var bytes = 0L
+    private var users = 0
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+
+    @Synchronized
+    fun retain() {
+        users++
+    }
+
+    @Synchronized
+    fun release() {
+        if (users > 0)
+            users--
+        if (users == 0)
+            clear()
+    }
+
+    @Synchronized
+    fun clear() {
+        for (list in buckets.values)
+            for (bitmap in list)
+                bitmap.recycle()
+        buckets.clear()
+        bytes = 0
+    }
+
+    /**
+     * @return a cleared mutable bitmap of the requested size, reused if possible
+     */
+    fun get(width: Int, height: Int, config: Bitmap.Config): Bitmap {
+        val needed = width.toLong() * height * bytesPerPixel(config)
+        synchronized(this) {
+            val bucket = bucket(needed)
+            for (b in bucket..bucket + 1) {
+                val list = buckets[b] ?: continue
+                val iterator = list.iterator()
+                while (iterator.hasNext()) {
+                    val bitmap = iterator.next()
+                    if (bitmap.allocationByteCount < needed)
+                        continue
+                    iterator.remove()
+                    bytes -= bitmap.allocationByteCount
+                    try {
+                        if (bitmap.width != width || bitmap.height != height || bitmap.config != config)
+                            bitmap.reconfigure(width, height, config)
+                    } catch (e: IllegalArgumentException) {
+                        bitmap.recycle()
+                        continue
+                    }
+                    if (list.isEmpty())
+                        buckets.remove(b)
+                    hits++
+                    bitmap.eraseColor(Color.TRANSPARENT)
+                    return bitmap
+                }
+                if (list.isEmpty())
+                    buckets.remove(b)
+            }
+            misses++
+        }
+        return Bitmap.createBitmap(width, height, config)
+    }
+
+    /**
+     * Scaled copy of [source] (or of its [src] region) drawn into a pooled bitmap
+     */
+    fun getScaled(source: Bitmap, width: Int, height: Int, src: Rect? = null): Bitmap {
+        val config =
+            if (source.config == null || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && source.config == Bitmap.Config.HARDWARE)
+                Bitmap.Config.ARGB_8888
+            else source.config!!
+        val bitmap = get(width, height, config)
+        Canvas(bitmap).drawBitmap(
+            source,
+            src,
+            Rect(0, 0, width, height),
+            Paint(Paint.FILTER_BITMAP_FLAG)
+        )
+        return bitmap
+    }
+
+    /**
+     * Return a bitmap that is no longer used by the caller. Ignored while nobody retains the pool.
+     */
+    fun put(bitmap: Bitmap?) {
+        if (bitmap == null || bitmap.isRecycled || !bitmap.isMutable)
+            return
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmap.config == Bitmap.Config.HARDWARE)
+            return
+        val size = bitmap.allocationByteCount.toLong()
+        synchronized(this) {
+            if (users == 0 || size > maxBytes)
+                return
+            while (bytes + size > maxBytes)
+                evictLargest()
+            buckets.getOrPut(bucket(size)) { ArrayDeque() }.addLast(bitmap)
+            bytes += size
+        }
+    }
+
+    /**
+     * Same as [put] for a bitmap that was just replaced in [view]: the frame in flight may still
+     * reference it, so it returns to the pool only after the next frame of [view] was drawn
+     */
+    fun putAfterNextFrame(view: View, bitmap: Bitmap?) {
+        if (bitmap == null)
+            return
+        val observer = view.viewTreeObserver
+        if (!observer.isAlive)
+            return //not drawn anymore - left to GC
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            //Called once the frame that no longer uses the bitmap was committed by the render thread
+            observer.registerFrameCommitCallback { put(bitmap) }
+            return
+        }
+        //Pre-Q: draw() returns only after the render thread synced the new frame,
+        //so a message posted from the pre-draw of that frame runs after the old one is released
+        observer.addOnPreDrawListener(object : ViewTreeObserver.OnPreDrawListener {
+            override fun onPreDraw(): Boolean {
+                if (view.viewTreeObserver.isAlive)
+                    view.viewTreeObserver.removeOnPreDrawListener(this)
+                view.post { put(bitmap) }
+                return true
+            }
+        })
+    }
+
+    private fun evictLargest() {
+        val key = buckets.keys.maxOrNull() ?: return
+        val list = buckets[key] ?: return
+        list.removeFirstOrNull()?.let {
+            bytes -= it.allocationByteCount
+            it.recycle()
+            evictions++
+        }
+        if (list.isEmpty())
+            buckets.remove(key)
+    }
+
+    private fun bucket(size: Long): Int = 64 - java.lang.Long.numberOfLeadingZeros(size - 1)
+
+    private fun bytesPerPixel(config: Bitmap.Config): Int = when (config) {
+        Bitmap.Config.ALPHA_8 -> 1
+        Bitmap.Config.RGB_565, Bitmap.Config.ARGB_4444 -> 2
+        else -> 4
+    }
+
+    @Synchronized
+    fun getStats(): Stats = Stats(hits, misses, evictions, bytes)
+
+    fun logStats() {
+        LogCat.log("BitmapPool", getStats())
+    }
+
+    class Stats(
+        val hits: Long,
+        val misses: Long,
+        val evictions: Long,
+        val pooledBytes: Long
+    ) {
+        override fun toString(): String {
+            return "BitmapPool{hits=$hits, misses=$misses, evictions=$evictions, pooled=${pooledBytes / 1024}KB}"
+        }
+    }
+}
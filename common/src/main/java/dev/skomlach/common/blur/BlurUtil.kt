@@ -51,6 +51,10 @@ import kotlin.coroutines.cancellation.CancellationException
 @SuppressLint("RestrictedApi")
 object BlurUtil {
     private const val TAG = "BlurUtil"
+
+    //Overall downscale and radius of the blur; capture-time downscale is subtracted from them
+    private const val BLUR_SAMPLING = 4
+    private const val BLUR_RADIUS = 4
     private var m: Method? = try {
         ViewDebug::class.java.getDeclaredMethod(
             "performViewCapture",
@@ -63,6 +67,10 @@ object BlurUtil {
         null
     }
 
+    /**
+     * While [BitmapPool] is retained, [originalBitmap] goes back to the pool after the callback,
+     * and [blurredBitmap] should be returned with [BitmapPool.put] once it is no longer shown
+     */
     interface OnPublishListener {
         fun onBlurredScreenshot(originalBitmap: Bitmap, blurredBitmap: Bitmap?)
     }
@@ -96,11 +104,16 @@ object BlurUtil {
             bitmapDeferred.await()
         }
 
-    fun takeScreenshotAndBlur(window: Window, listener: OnPublishListener) {
+    /**
+     * @param downscale the window is captured at 1/downscale of its size, see [DEFAULT_CAPTURE_SCALE]
+     * @throws IllegalArgumentException if [downscale] is less than 1
+     */
+    fun takeScreenshotAndBlur(window: Window, listener: OnPublishListener, downscale: Int = 1) {
+        require(downscale >= 1) { "downscale must be >= 1, was $downscale" }
         GlobalScope.launch(Dispatchers.Main) {
-            val bm = window.captureRegionToBitmap()
+            val bm = window.captureRegionToBitmap(scale = downscale)
             bm.addListener({
-                blur(window.context, bm.get(), listener)
+                blur(window.context, bm.get(), listener, downscale)
             }, ExecutorHelper.executor)
         }
     }
@@ -216,7 +229,12 @@ object BlurUtil {
             bitmapDeferred.await()
         }
 
-    fun takeScreenshotAndBlur(view: View, listener: OnPublishListener) {
+    /**
+     * @param downscale the view is captured at 1/downscale of its size, see [DEFAULT_CAPTURE_SCALE]
+     * @throws IllegalArgumentException if [downscale] is less than 1
+     */
+    fun takeScreenshotAndBlur(view: View, listener: OnPublishListener, downscale: Int = 1) {
+        require(downscale >= 1) { "downscale must be >= 1, was $downscale" }
         ExecutorHelper.startOnBackground {
             //Crash happens on Blackberry due to mPowerSaveScalingMode is NULL
             val isBlackBerryBug = (Build.BRAND.equals(
@@ -248,8 +266,10 @@ object BlurUtil {
                                 LogCat.log("BlurUtil.takeScreenshot#1 time - ${System.currentTimeMillis() - startMs} ms")
                                 blur(
                                     view.context,
-                                    bm.copy(Bitmap.Config.ARGB_4444, false),
-                                    listener
+                                    if (downscale > 1) scale(bm, downscale)
+                                    else bm.copy(Bitmap.Config.ARGB_4444, false),
+                                    listener,
+                                    downscale
                                 )
                             } catch (e: Throwable) {
                                 LogCat.logException(e)
@@ -258,30 +278,44 @@ object BlurUtil {
                     } catch (ignore: Throwable) {
                         blur(
                             view.context,
-                            fallbackViewCapture(view) ?: return@startOnBackground,
-                            listener
+                            fallbackViewCapture(view, downscale) ?: return@startOnBackground,
+                            listener,
+                            downscale
                         )
                     }
                     return@startOnBackground
                 }
             }
 
-            blur(view.context, fallbackViewCapture(view) ?: return@startOnBackground, listener)
+            blur(
+                view.context,
+                fallbackViewCapture(view, downscale) ?: return@startOnBackground,
+                listener,
+                downscale
+            )
         }
 
     }
 
-    private fun fallbackViewCapture(view: View): Bitmap? {
+    private fun scale(bm: Bitmap, downscale: Int): Bitmap =
+        BitmapPool.getScaled(
+            bm,
+            (bm.width / downscale).coerceAtLeast(1),
+            (bm.height / downscale).coerceAtLeast(1)
+        )
+
+    private fun fallbackViewCapture(view: View, downscale: Int = 1): Bitmap? {
         val startMs = System.currentTimeMillis()
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             try {
                 val bm =
-                    Bitmap.createBitmap(
-                        view.measuredWidth,
-                        view.measuredHeight,
+                    BitmapPool.get(
+                        (view.measuredWidth / downscale).coerceAtLeast(1),
+                        (view.measuredHeight / downscale).coerceAtLeast(1),
                         Bitmap.Config.ARGB_4444
                     )
                 val canvas = Canvas(bm)
+                canvas.scale(1f / downscale, 1f / downscale)
                 view.draw(canvas)
                 LogCat.log("BlurUtil.takeScreenshot#2 time - ${System.currentTimeMillis() - startMs} ms")
 
@@ -299,7 +333,7 @@ object BlurUtil {
             }
             try {
                 view.drawingCache?.let {
-                    val bm = Bitmap.createBitmap(it)
+                    val bm = if (downscale > 1) scale(it, downscale) else Bitmap.createBitmap(it)
                     LogCat.log("BlurUtil.takeScreenshot#3 time - ${System.currentTimeMillis() - startMs} ms")
                     return bm
                 }
@@ -315,21 +349,29 @@ object BlurUtil {
         return null
     }
 
-    private fun blur(context: Context, bkg: Bitmap, listener: OnPublishListener) {
+    private fun blur(
+        context: Context,
+        bkg: Bitmap,
+        listener: OnPublishListener,
+        downscale: Int = 1
+    ) {
         if (bkg.height == 0 || bkg.width == 0)
             return
         val startMs = System.currentTimeMillis()
         if (Utils.isAtLeastS) {
             ExecutorHelper.post {
                 listener.onBlurredScreenshot(bkg, null)
+                BitmapPool.put(bkg)
             }
             return
         }
 
+        //Keep the same blur in screen pixels when the capture is already downscaled
+        val sampling = (BLUR_SAMPLING / downscale).coerceAtLeast(1)
         val overlay = FastBlur.of(
             context, bkg, FastBlurConfig(
-                radius = 4,
-                sampling = 4,
+                radius = (BLUR_RADIUS * BLUR_SAMPLING / (downscale * sampling)).coerceAtLeast(1),
+                sampling = sampling,
                 width = bkg.width,
                 height = bkg.height
             )
@@ -340,6 +382,7 @@ object BlurUtil {
                 bkg,
                 overlay
             )
+            BitmapPool.put(bkg)
         }
     }
 
@@ -608,11 +651,13 @@ object BlurUtil {
 
     private fun View.generateBitmapFromDraw(
         destBitmap: Bitmap,
-        bitmapFuture: ResolvableFuture<Bitmap>
+        bitmapFuture: ResolvableFuture<Bitmap>,
+        scale: Int = 1
     ) {
         destBitmap.density = resources.displayMetrics.densityDpi
         computeScroll()
         val canvas = Canvas(destBitmap)
+        canvas.scale(1f / scale, 1f / scale)
         canvas.translate((-scrollX).toFloat(), (-scrollY).toFloat())
         draw(canvas)
         bitmapFuture.set(destBitmap)
@@ -657,7 +702,11 @@ object BlurUtil {
      * This API is currently experimental and subject to change or removal.
      */
 
-    fun Window.captureRegionToBitmap(boundsInWindow: Rect? = null): ListenableFuture<Bitmap> {
+    fun Window.captureRegionToBitmap(
+        boundsInWindow: Rect? = null,
+        scale: Int = 1
+    ): ListenableFuture<Bitmap> {
+        require(scale >= 1) { "scale must be >= 1, was $scale" }
         val bitmapFuture: ResolvableFuture<Bitmap> = ResolvableFuture.create()
         val mainExecutor = ExecutorHelper.executor
 
@@ -672,7 +721,7 @@ object BlurUtil {
         mainExecutor.execute {
             val forceRedrawFuture = decorView.forceRedraw()
             forceRedrawFuture.addListener(
-                { generateBitmap(boundsInWindow, bitmapFuture) },
+                { generateBitmap(boundsInWindow, bitmapFuture, scale) },
                 mainExecutor
             )
         }
@@ -680,25 +729,27 @@ object BlurUtil {
         return bitmapFuture
     }
 
+    //PixelCopy scales the source region to the size of the destination bitmap
     private fun Window.generateBitmap(
         boundsInWindow: Rect? = null,
-        bitmapFuture: ResolvableFuture<Bitmap>
+        bitmapFuture: ResolvableFuture<Bitmap>,
+        scale: Int = 1
     ) {
         val destBitmap =
-            Bitmap.createBitmap(
-                boundsInWindow?.width() ?: decorView.width,
-                boundsInWindow?.height() ?: decorView.height,
+            BitmapPool.get(
+                ((boundsInWindow?.width() ?: decorView.width) / scale).coerceAtLeast(1),
+                ((boundsInWindow?.height() ?: decorView.height) / scale).coerceAtLeast(1),
                 Bitmap.Config.ARGB_8888
             )
         when {
             Build.VERSION.SDK_INT < 26 ->
                 // TODO: handle boundsInWindow
-                decorView.generateBitmapFromDraw(destBitmap, bitmapFuture)
+                decorView.generateBitmapFromDraw(destBitmap, bitmapFuture, scale)
 
             else -> try {
                 generateBitmapFromPixelCopy(boundsInWindow, destBitmap, bitmapFuture)
             } catch (e: IllegalArgumentException) { //Window doesn't have a backing surface
-                decorView.generateBitmapFromDraw(destBitmap, bitmapFuture)
+                decorView.generateBitmapFromDraw(destBitmap, bitmapFuture, scale)
             }
         }
     }
@@ -22,18 +22,37 @@ package dev.skomlach.common.blur
 import android.content.Context
 import android.graphics.*
 import android.os.Build
-import android.renderscript.*
-import android.renderscript.RenderScript.RSMessageHandler
-import androidx.annotation.RequiresApi
+import android.os.Process
+import android.renderscript.RSRuntimeException
+import dev.skomlach.common.logging.LogCat
+import dev.skomlach.common.misc.InstrumentedExecutor
 
 internal object FastBlur {
+    private val stackBlur by lazy {
+        val bands = Runtime.getRuntime().availableProcessors().coerceIn(1, 4)
+        StackBlur(
+            InstrumentedExecutor(
+                "BiometricCompat-blur",
+                (bands - 1).coerceAtLeast(1),
+                Process.THREAD_PRIORITY_DISPLAY
+            ), bands
+        )
+    }
+
     fun of(context: Context, source: Bitmap, factor: FastBlurConfig): Bitmap? {
         val width = factor.width / factor.sampling
         val height = factor.height / factor.sampling
         if (hasZero(width, height)) {
             return null
         }
-        var bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_4444)
+        //ScriptIntrinsicBlur accepts only 8-bit channels
+        val useRs =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && RenderScriptBlur.isAvailable
+        var bitmap = BitmapPool.get(
+            width,
+            height,
+            if (useRs) Bitmap.Config.ARGB_8888 else Bitmap.Config.ARGB_4444
+        )
         val canvas = Canvas(bitmap)
         canvas.scale(1 / factor.sampling.toFloat(), 1 / factor.sampling.toFloat())
         val paint = Paint()
@@ -43,8 +62,8 @@ internal object FastBlur {
         canvas.drawBitmap(source, 0f, 0f, paint)
         bitmap = try {
             //crash on JB/Kitkat
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                rs(context, bitmap, factor.radius)
+            if (useRs) {
+                RenderScriptBlur.blur(context, bitmap, factor.radius)
             } else stack(bitmap, factor.radius, true)
         } catch (e: RSRuntimeException) {
             stack(bitmap, factor.radius, true)
@@ -52,8 +71,8 @@ internal object FastBlur {
         return if (factor.sampling == DEFAULT_SAMPLING) {
             bitmap
         } else {
-            val scaled = Bitmap.createScaledBitmap(bitmap, factor.width, factor.height, true)
-            bitmap.recycle()
+            val scaled = BitmapPool.getScaled(bitmap, factor.width, factor.height)
+            BitmapPool.put(bitmap)
             scaled
         }
     }
@@ -67,65 +86,8 @@ internal object FastBlur {
         return false
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
-    @Throws(RSRuntimeException::class)
-    private fun rs(context: Context, bitmap: Bitmap, radius: Int): Bitmap {
-        var rs: RenderScript? = null
-        var input: Allocation? = null
-        var output: Allocation? = null
-        var blur: ScriptIntrinsicBlur? = null
-        try {
-            rs = RenderScript.create(context)
-            rs.messageHandler = RSMessageHandler()
-            input = Allocation.createFromBitmap(
-                rs, bitmap, Allocation.MipmapControl.MIPMAP_NONE,
-                Allocation.USAGE_SCRIPT
-            )
-            output = Allocation.createTyped(rs, input.type)
-            blur = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs))
-            blur.setInput(input)
-            blur.setRadius(radius.toFloat())
-            blur.forEach(output)
-            output.copyTo(bitmap)
-        } finally {
-            rs?.destroy()
-            input?.destroy()
-            output?.destroy()
-            blur?.destroy()
-        }
-        return bitmap
-    }
-
     private fun stack(sentBitmap: Bitmap, r: Int, canReuseInBitmap: Boolean): Bitmap {
-
         var radius: Int = r
-        // Stack Blur v1.0 from
-        // http://www.quasimondo.com/StackBlurForCanvas/StackBlurDemo.html
-        //
-        // Java Author: Mario Klingemann <mario at quasimondo.com>
-        // http://incubator.quasimondo.com
-        // created Feburary 29, 2004
-        // Android port : Yahel Bouaziz <yahel at kayenko.com>
-        // http://www.kayenko.com
-        // ported april 5th, 2012
-
-        // This is a compromise between Gaussian Blur and Box blur
-        // It creates much better looking blurs than Box Blur, but is
-        // 7x faster than my Gaussian Blur implementation.
-        //
-        // I called it Stack Blur because this describes best how this
-        // filter works internally: it creates a kind of moving stack
-        // of colors whilst scanning through the image. Thereby it
-        // just has to add one new block of color to the right side
-        // of the stack and remove the leftmost color. The remaining
-        // colors on the topmost layer of the stack are either added on
-        // or reduced by one, depending on if they are on the right or
-        // on the left side of the stack.
-        //
-        // If you are using this algorithm in your code please add
-        // the following line:
-        //
-        // Stack Blur Algorithm by Mario Klingemann <mario@quasimondo.com>
         val bitmap: Bitmap = if (canReuseInBitmap || sentBitmap.config == null) {
             sentBitmap
         } else {
@@ -134,203 +96,16 @@ internal object FastBlur {
         if (radius < 1) {
             radius = DEFAULT_RADIUS
         }
+        val startMs = System.currentTimeMillis()
         val w = bitmap.width
         val h = bitmap.height
-        val pix = IntArray(w * h)
-        bitmap.getPixels(pix, 0, w, 0, 0, w, h)
-        val wm = w - 1
-        val hm = h - 1
-        val wh = w * h
-        val div = radius + radius + 1
-        val r = IntArray(wh)
-        val g = IntArray(wh)
-        val b = IntArray(wh)
-        var rsum: Int
-        var gsum: Int
-        var bsum: Int
-        var x: Int
-        var y: Int
-        var i: Int
-        var p: Int
-        var yp: Int
-        var yi: Int
-        val vmin = IntArray(Math.max(w, h))
-        var divsum = div + 1 shr 1
-        divsum *= divsum
-        val dv = IntArray(256 * divsum)
-        i = 0
-        while (i < 256 * divsum) {
-            dv[i] = i / divsum
-            i++
-        }
-        yi = 0
-        var yw: Int = yi
-        val stack = Array(div) { IntArray(3) }
-        var stackpointer: Int
-        var stackstart: Int
-        var sir: IntArray
-        var rbs: Int
-        val r1 = radius + 1
-        var routsum: Int
-        var goutsum: Int
-        var boutsum: Int
-        var rinsum: Int
-        var ginsum: Int
-        var binsum: Int
-        y = 0
-        while (y < h) {
-            bsum = 0
-            gsum = bsum
-            rsum = gsum
-            boutsum = rsum
-            goutsum = boutsum
-            routsum = goutsum
-            binsum = routsum
-            ginsum = binsum
-            rinsum = ginsum
-            i = -radius
-            while (i <= radius) {
-                p = pix[yi + wm.coerceAtMost(i.coerceAtLeast(0))]
-                sir = stack[i + radius]
-                sir[0] = p and 0xff0000 shr 16
-                sir[1] = p and 0x00ff00 shr 8
-                sir[2] = p and 0x0000ff
-                rbs = r1 - Math.abs(i)
-                rsum += sir[0] * rbs
-                gsum += sir[1] * rbs
-                bsum += sir[2] * rbs
-                if (i > 0) {
-                    rinsum += sir[0]
-                    ginsum += sir[1]
-                    binsum += sir[2]
-                } else {
-                    routsum += sir[0]
-                    goutsum += sir[1]
-                    boutsum += sir[2]
-                }
-                i++
-            }
-            stackpointer = radius
-            x = 0
-            while (x < w) {
-                r[yi] = dv[rsum]
-                g[yi] = dv[gsum]
-                b[yi] = dv[bsum]
-                rsum -= routsum
-                gsum -= goutsum
-                bsum -= boutsum
-                stackstart = stackpointer - radius + div
-                sir = stack[stackstart % div]
-                routsum -= sir[0]
-                goutsum -= sir[1]
-                boutsum -= sir[2]
-                if (y == 0) {
-                    vmin[x] = (x + radius + 1).coerceAtMost(wm)
-                }
-                p = pix[yw + vmin[x]]
-                sir[0] = p and 0xff0000 shr 16
-                sir[1] = p and 0x00ff00 shr 8
-                sir[2] = p and 0x0000ff
-                rinsum += sir[0]
-                ginsum += sir[1]
-                binsum += sir[2]
-                rsum += rinsum
-                gsum += ginsum
-                bsum += binsum
-                stackpointer = (stackpointer + 1) % div
-                sir = stack[stackpointer % div]
-                routsum += sir[0]
-                goutsum += sir[1]
-                boutsum += sir[2]
-                rinsum -= sir[0]
-                ginsum -= sir[1]
-                binsum -= sir[2]
-                yi++
-                x++
-            }
-            yw += w
-            y++
-        }
-        x = 0
-        while (x < w) {
-            bsum = 0
-            gsum = bsum
-            rsum = gsum
-            boutsum = rsum
-            goutsum = boutsum
-            routsum = goutsum
-            binsum = routsum
-            ginsum = binsum
-            rinsum = ginsum
-            yp = -radius * w
-            i = -radius
-            while (i <= radius) {
-                yi = 0.coerceAtLeast(yp) + x
-                sir = stack[i + radius]
-                sir[0] = r[yi]
-                sir[1] = g[yi]
-                sir[2] = b[yi]
-                rbs = r1 - Math.abs(i)
-                rsum += r[yi] * rbs
-                gsum += g[yi] * rbs
-                bsum += b[yi] * rbs
-                if (i > 0) {
-                    rinsum += sir[0]
-                    ginsum += sir[1]
-                    binsum += sir[2]
-                } else {
-                    routsum += sir[0]
-                    goutsum += sir[1]
-                    boutsum += sir[2]
-                }
-                if (i < hm) {
-                    yp += w
-                }
-                i++
-            }
-            yi = x
-            stackpointer = radius
-            y = 0
-            while (y < h) {
-
-                // Preserve alpha channel: ( 0xff000000 & pix[yi] )
-                pix[yi] =
-                    -0x1000000 and pix[yi] or (dv[rsum] shl 16) or (dv[gsum] shl 8) or dv[bsum]
-                rsum -= routsum
-                gsum -= goutsum
-                bsum -= boutsum
-                stackstart = stackpointer - radius + div
-                sir = stack[stackstart % div]
-                routsum -= sir[0]
-                goutsum -= sir[1]
-                boutsum -= sir[2]
-                if (x == 0) {
-                    vmin[y] = Math.min(y + r1, hm) * w
-                }
-                p = x + vmin[y]
-                sir[0] = r[p]
-                sir[1] = g[p]
-                sir[2] = b[p]
-                rinsum += sir[0]
-                ginsum += sir[1]
-                binsum += sir[2]
-                rsum += rinsum
-                gsum += ginsum
-                bsum += binsum
-                stackpointer = (stackpointer + 1) % div
-                sir = stack[stackpointer]
-                routsum += sir[0]
-                goutsum += sir[1]
-                boutsum += sir[2]
-                rinsum -= sir[0]
-                ginsum -= sir[1]
-                binsum -= sir[2]
-                yi += w
-                y++
-            }
-            x++
+        synchronized(stackBlur) {
+            val pix = stackBlur.pixels(w, h)
+            bitmap.getPixels(pix, 0, w, 0, 0, w, h)
+            stackBlur.blur(pix, w, h, radius)
+            bitmap.setPixels(pix, 0, w, 0, 0, w, h)
         }
-        bitmap.setPixels(pix, 0, w, 0, 0, w, h)
+        LogCat.log("FastBlur.stack ${bitmap.width}x${bitmap.height} - ${System.currentTimeMillis() - startMs} ms")
         return bitmap
     }
-}
\ No newline at end of file
+}
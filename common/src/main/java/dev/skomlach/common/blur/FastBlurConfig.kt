@@ -23,6 +23,9 @@ import android.graphics.Color
 const val DEFAULT_RADIUS = 25
 const val DEFAULT_SAMPLING = 1
 
+//Screenshots for the blurred background are captured at 1/4 of the window size
+const val DEFAULT_CAPTURE_SCALE = 4
+
 data class FastBlurConfig(
     var width: Int,
     var height: Int,
@@ -0,0 +1,145 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.blur
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.graphics.Bitmap
+import android.os.Build
+import android.renderscript.Allocation
+import android.renderscript.Element
+import android.renderscript.RSRuntimeException
+import android.renderscript.RenderScript
+import android.renderscript.RenderScript.RSMessageHandler
+import android.renderscript.ScriptIntrinsicBlur
+import androidx.annotation.RequiresApi
+import dev.skomlach.common.logging.LogCat
+import dev.skomlach.common.misc.ExecutorHelper
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Process-wide RenderScript blur: one context and intrinsic, plus input/output allocations
+ * reused for the same bitmap size and config.
+ *
+ * Everything is released on memory trim; after the first RenderScript failure the engine
+ * reports itself unavailable and callers stay on the Java path.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
+internal object RenderScriptBlur {
+    private const val MAX_ALLOCATIONS = 4
+    private val callbacksRegistered = AtomicBoolean(false)
+    private val allocations =
+        LinkedHashMap<String, Pair<Allocation, Allocation>>(MAX_ALLOCATIONS, 0.75f, true)
+    private var rs: RenderScript? = null
+    private var intrinsic: ScriptIntrinsicBlur? = null
+
+    @Volatile
+    var isAvailable = true
+        private set
+
+    @Synchronized
+    @Throws(RSRuntimeException::class)
+    fun blur(context: Context, bitmap: Bitmap, radius: Int): Bitmap {
+        val startMs = System.currentTimeMillis()
+        try {
+            val rs = rs ?: RenderScript.create(context.applicationContext ?: context).also {
+                it.messageHandler = RSMessageHandler()
+                rs = it
+                registerCallbacks(context)
+            }
+            val intrinsic = intrinsic ?: ScriptIntrinsicBlur.create(rs, Element.U8_4(rs)).also {
+                intrinsic = it
+            }
+            val key = "${bitmap.width}x${bitmap.height}-${bitmap.config}"
+            val cached = allocations[key]
+            val input: Allocation
+            val output: Allocation
+            if (cached != null) {
+                input = cached.first
+                output = cached.second
+                input.copyFrom(bitmap)
+            } else {
+                input = Allocation.createFromBitmap(
+                    rs, bitmap, Allocation.MipmapControl.MIPMAP_NONE,
+                    Allocation.USAGE_SCRIPT
+                )
+                output = Allocation.createTyped(rs, input.type)
+                allocations[key] = Pair(input, output)
+                trim()
+            }
+            intrinsic.setInput(input)
+            intrinsic.setRadius(radius.toFloat())
+            intrinsic.forEach(output)
+            output.copyTo(bitmap)
+            LogCat.log("RenderScriptBlur.blur ${bitmap.width}x${bitmap.height} - ${System.currentTimeMillis() - startMs} ms")
+            return bitmap
+        } catch (e: RSRuntimeException) {
+            isAvailable = false
+            release()
+            throw e
+        }
+    }
+
+    @Synchronized
+    fun release() {
+        for ((input, output) in allocations.values) {
+            input.destroy()
+            output.destroy()
+        }
+        allocations.clear()
+        intrinsic?.destroy()
+        intrinsic = null
+        rs?.destroy()
+        rs = null
+    }
+
+    private fun trim() {
+        val iterator = allocations.values.iterator()
+        while (allocations.size > MAX_ALLOCATIONS && iterator.hasNext()) {
+            val (input, output) = iterator.next()
+            input.destroy()
+            output.destroy()
+            iterator.remove()
+        }
+    }
+
+    private fun registerCallbacks(context: Context) {
+        if (!callbacksRegistered.compareAndSet(false, true))
+            return
+        (context.applicationContext ?: context).registerComponentCallbacks(object :
+            ComponentCallbacks2 {
+            override fun onTrimMemory(level: Int) {
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+                    ExecutorHelper.startOnBackground {
+                        release()
+                    }
+            }
+
+            override fun onConfigurationChanged(newConfig: Configuration) {}
+
+            override fun onLowMemory() {
+                ExecutorHelper.startOnBackground {
+                    release()
+                }
+            }
+        })
+    }
+}
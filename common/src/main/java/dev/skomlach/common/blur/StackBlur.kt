@@ -0,0 +1,345 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.blur
+
+import java.lang.ref.SoftReference
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Stack Blur v1.0 from
+ * http://www.quasimondo.com/StackBlurForCanvas/StackBlurDemo.html
+ *
+ * Java Author: Mario Klingemann <mario at quasimondo.com>
+ * http://incubator.quasimondo.com
+ * created Feburary 29, 2004
+ * Android port : Yahel Bouaziz <yahel at kayenko.com>
+ * http://www.kayenko.com
+ * ported april 5th, 2012
+ *
+ * Stack Blur Algorithm by Mario Klingemann <mario@quasimondo.com>
+ *
+ * Same arithmetic as the original single-threaded port: rows of the horizontal pass and
+ * columns of the vertical pass are independent, so they are split into up to [bands] bands,
+ * all but one of them run on [executor]. Pixel/channel buffers and the division tables are reused between calls.
+ *
+ * Works on plain ARGB arrays, [FastBlur] copies the bitmap pixels in and out.
+ */
+internal class StackBlur(private val executor: Executor, private val bands: Int) {
+    companion object {
+        //Rows/columns below this count are not worth a hand-off to the workers
+        private const val MIN_BAND = 32
+    }
+
+    private val dvTables = HashMap<Int, IntArray>()
+    private val stacks = ThreadLocal<IntArray>()
+    private var scratch: SoftReference<Scratch>? = null
+
+    private class Scratch(val size: Int, val lines: Int) {
+        val pix = IntArray(size)
+        val r = IntArray(size)
+        val g = IntArray(size)
+        val b = IntArray(size)
+        val vminX = IntArray(lines)
+        val vminY = IntArray(lines)
+    }
+
+    /**
+     * Reusable buffer for the pixels of a [w]x[h] image; valid until the next call,
+     * so the caller holds the lock of this instance while it uses the buffer
+     */
+    @Synchronized
+    fun pixels(w: Int, h: Int): IntArray = scratch(w, h).pix
+
+    /**
+     * Blurs the [w]x[h] ARGB image in [pix] in place; alpha is preserved
+     */
+    @Synchronized
+    fun blur(pix: IntArray, w: Int, h: Int, radius: Int) {
+        val s = scratch(w, h)
+        val dv = dvTables.getOrPut(radius) {
+            var divsum = radius + radius + 2 shr 1
+            divsum *= divsum
+            IntArray(256 * divsum) { it / divsum }
+        }
+        val wm = w - 1
+        val hm = h - 1
+        val r1 = radius + 1
+        for (x in 0 until w)
+            s.vminX[x] = (x + radius + 1).coerceAtMost(wm)
+        for (y in 0 until h)
+            s.vminY[y] = Math.min(y + r1, hm) * w
+        parallel(h) { from, to ->
+            horizontal(pix, s, dv, w, radius, from, to)
+        }
+        parallel(w) { from, to ->
+            vertical(pix, s, dv, w, h, radius, from, to)
+        }
+    }
+
+    private fun scratch(w: Int, h: Int): Scratch {
+        val wh = w * h
+        return scratch?.get()?.takeIf {
+            it.size >= wh && it.lines >= Math.max(w, h)
+        } ?: Scratch(wh, Math.max(w, h)).also {
+            scratch = SoftReference(it)
+        }
+    }
+
+    private fun parallel(count: Int, task: (Int, Int) -> Unit) {
+        val n = Math.min(bands, count / MIN_BAND)
+        if (n <= 1) {
+            task(0, count)
+            return
+        }
+        val latch = CountDownLatch(n - 1)
+        val error = AtomicReference<Throwable>()
+        for (k in 1 until n) {
+            val from = count * k / n
+            val to = count * (k + 1) / n
+            executor.execute {
+                try {
+                    task(from, to)
+                } catch (e: Throwable) {
+                    error.set(e)
+                } finally {
+                    latch.countDown()
+                }
+            }
+        }
+        task(0, count / n)
+        latch.await()
+        error.get()?.let {
+            throw it
+        }
+    }
+
+    private fun getStack(div: Int): IntArray {
+        stacks.get()?.let {
+            if (it.size >= div * 3)
+                return it
+        }
+        return IntArray(div * 3).also {
+            stacks.set(it)
+        }
+    }
+
+    private fun horizontal(
+        pix: IntArray,
+        s: Scratch,
+        dv: IntArray,
+        w: Int,
+        radius: Int,
+        from: Int,
+        to: Int
+    ) {
+        val r = s.r
+        val g = s.g
+        val b = s.b
+        val vmin = s.vminX
+        val wm = w - 1
+        val div = radius + radius + 1
+        val r1 = radius + 1
+        //flat [r, g, b] triples
+        val stack = getStack(div)
+        var rsum: Int
+        var gsum: Int
+        var bsum: Int
+        var routsum: Int
+        var goutsum: Int
+        var boutsum: Int
+        var rinsum: Int
+        var ginsum: Int
+        var binsum: Int
+        var stackpointer: Int
+        var sir: Int
+        var p: Int
+        var rbs: Int
+        for (y in from until to) {
+            val yw = y * w
+            var yi = yw
+            rsum = 0
+            gsum = 0
+            bsum = 0
+            routsum = 0
+            goutsum = 0
+            boutsum = 0
+            rinsum = 0
+            ginsum = 0
+            binsum = 0
+            for (i in -radius..radius) {
+                p = pix[yi + wm.coerceAtMost(i.coerceAtLeast(0))]
+                sir = (i + radius) * 3
+                stack[sir] = p and 0xff0000 shr 16
+                stack[sir + 1] = p and 0x00ff00 shr 8
+                stack[sir + 2] = p and 0x0000ff
+                rbs = r1 - Math.abs(i)
+                rsum += stack[sir] * rbs
+                gsum += stack[sir + 1] * rbs
+                bsum += stack[sir + 2] * rbs
+                if (i > 0) {
+                    rinsum += stack[sir]
+                    ginsum += stack[sir + 1]
+                    binsum += stack[sir + 2]
+                } else {
+                    routsum += stack[sir]
+                    goutsum += stack[sir + 1]
+                    boutsum += stack[sir + 2]
+                }
+            }
+            stackpointer = radius
+            for (x in 0 until w) {
+                r[yi] = dv[rsum]
+                g[yi] = dv[gsum]
+                b[yi] = dv[bsum]
+                rsum -= routsum
+                gsum -= goutsum
+                bsum -= boutsum
+                sir = (stackpointer - radius + div) % div * 3
+                routsum -= stack[sir]
+                goutsum -= stack[sir + 1]
+                boutsum -= stack[sir + 2]
+                p = pix[yw + vmin[x]]
+                stack[sir] = p and 0xff0000 shr 16
+                stack[sir + 1] = p and 0x00ff00 shr 8
+                stack[sir + 2] = p and 0x0000ff
+                rinsum += stack[sir]
+                ginsum += stack[sir + 1]
+                binsum += stack[sir + 2]
+                rsum += rinsum
+                gsum += ginsum
+                bsum += binsum
+                stackpointer = (stackpointer + 1) % div
+                sir = stackpointer * 3
+                routsum += stack[sir]
+                goutsum += stack[sir + 1]
+                boutsum += stack[sir + 2]
+                rinsum -= stack[sir]
+                ginsum -= stack[sir + 1]
+                binsum -= stack[sir + 2]
+                yi++
+            }
+        }
+    }
+
+    private fun vertical(
+        pix: IntArray,
+        s: Scratch,
+        dv: IntArray,
+        w: Int,
+        h: Int,
+        radius: Int,
+        from: Int,
+        to: Int
+    ) {
+        val r = s.r
+        val g = s.g
+        val b = s.b
+        val vmin = s.vminY
+        val hm = h - 1
+        val div = radius + radius + 1
+        val r1 = radius + 1
+        val stack = getStack(div)
+        var rsum: Int
+        var gsum: Int
+        var bsum: Int
+        var routsum: Int
+        var goutsum: Int
+        var boutsum: Int
+        var rinsum: Int
+        var ginsum: Int
+        var binsum: Int
+        var stackpointer: Int
+        var sir: Int
+        var p: Int
+        var rbs: Int
+        var yi: Int
+        var yp: Int
+        for (x in from until to) {
+            rsum = 0
+            gsum = 0
+            bsum = 0
+            routsum = 0
+            goutsum = 0
+            boutsum = 0
+            rinsum = 0
+            ginsum = 0
+            binsum = 0
+            yp = -radius * w
+            for (i in -radius..radius) {
+                yi = 0.coerceAtLeast(yp) + x
+                sir = (i + radius) * 3
+                stack[sir] = r[yi]
+                stack[sir + 1] = g[yi]
+                stack[sir + 2] = b[yi]
+                rbs = r1 - Math.abs(i)
+                rsum += r[yi] * rbs
+                gsum += g[yi] * rbs
+                bsum += b[yi] * rbs
+                if (i > 0) {
+                    rinsum += stack[sir]
+                    ginsum += stack[sir + 1]
+                    binsum += stack[sir + 2]
+                } else {
+                    routsum += stack[sir]
+                    goutsum += stack[sir + 1]
+                    boutsum += stack[sir + 2]
+                }
+                if (i < hm) {
+                    yp += w
+                }
+            }
+            yi = x
+            stackpointer = radius
+            for (y in 0 until h) {
+                // Preserve alpha channel: ( 0xff000000 & pix[yi] )
+                pix[yi] =
+                    -0x1000000 and pix[yi] or (dv[rsum] shl 16) or (dv[gsum] shl 8) or dv[bsum]
+                rsum -= routsum
+                gsum -= goutsum
+                bsum -= boutsum
+                sir = (stackpointer - radius + div) % div * 3
+                routsum -= stack[sir]
+                goutsum -= stack[sir + 1]
+                boutsum -= stack[sir + 2]
+                p = x + vmin[y]
+                stack[sir] = r[p]
+                stack[sir + 1] = g[p]
+                stack[sir + 2] = b[p]
+                rinsum += stack[sir]
+                ginsum += stack[sir + 1]
+                binsum += stack[sir + 2]
+                rsum += rinsum
+                gsum += ginsum
+                bsum += binsum
+                stackpointer = (stackpointer + 1) % div
+                sir = stackpointer * 3
+                routsum += stack[sir]
+                goutsum += stack[sir + 1]
+                boutsum += stack[sir + 2]
+                rinsum -= stack[sir]
+                ginsum -= stack[sir + 1]
+                binsum -= stack[sir + 2]
+                yi += w
+            }
+        }
+    }
+}
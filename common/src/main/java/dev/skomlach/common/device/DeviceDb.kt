@@ -0,0 +1,455 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.device
+
+import android.util.JsonReader
+import android.util.JsonToken
+import androidx.core.content.ContextCompat
+import androidx.core.content.pm.PackageInfoCompat
+import dev.skomlach.common.contextprovider.AndroidContext
+import dev.skomlach.common.logging.LogCat
+import dev.skomlach.common.misc.ExecutorHelper
+import dev.skomlach.common.network.NetworkApi
+import dev.skomlach.common.storage.SharedPreferenceProvider
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.io.Reader
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.Locale
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.math.abs
+
+/**
+ * Read-only view of the compiled device database.
+ *
+ * The file is produced at build time from by_brand.json and devices.json (see common/device-db.gradle
+ * for the layout) and refreshed from the web at runtime by the same format [Writer].
+ * It is memory-mapped, so lookups are binary searches over the mapped pages instead of parsing the JSON.
+ */
+internal class DeviceDb private constructor(private val buffer: ByteBuffer) {
+    companion object {
+        const val FILE_NAME = "device_db.bin"
+        private const val MAGIC = 0x42434442
+        private const val VERSION = 1
+        private const val HEADER_SIZE = 16
+
+        //header fields
+        private const val STRINGS = 2
+        private const val MODELS = 4
+        private const val MODEL_INDEX = 6
+        private const val DEVICE_INDEX = 8
+        private const val SPECS = 10
+        private const val SPEC_NAME_INDEX = 12
+        private const val SPEC_CODENAME_INDEX = 14
+
+        //https://github.com/androidtrackers/certified-android-devices/
+        private const val BY_BRAND_URL =
+            "https://github.com/androidtrackers/certified-android-devices/blob/master/by_brand.json?raw=true"
+
+        //https://github.com/nowrom/devices/
+        private const val DEVICES_URL =
+            "https://github.com/nowrom/devices/blob/main/devices.json?raw=true"
+
+        private val loadingInProgress = AtomicBoolean(false)
+
+        @Volatile
+        private var instance: DeviceDb? = null
+
+        fun get(): DeviceDb? {
+            refreshIfNeeded()
+            instance?.let { return it }
+            synchronized(this) {
+                instance?.let { return it }
+                return (openCached() ?: openAsset()).also {
+                    instance = it
+                }
+            }
+        }
+
+        fun normalize(s: String): String = s.filter { c ->
+            c.isLetterOrDigit() || c.isWhitespace()
+        }.lowercase(Locale.ROOT)
+
+        private fun cachedFile(): File = File(AndroidContext.appContext.cacheDir, FILE_NAME)
+
+        private fun openCached(): DeviceDb? {
+            val file = cachedFile()
+            if (!file.exists())
+                return null
+            try {
+                RandomAccessFile(file, "r").use {
+                    return validate(it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length()))
+                        ?: throw IllegalStateException("Unsupported format of $file")
+                }
+            } catch (e: Throwable) {
+                LogCat.logException(e, "DeviceDb")
+                file.delete()
+            }
+            return null
+        }
+
+        private fun openAsset(): DeviceDb? {
+            try {
+                //Compression of assets is decided by the consuming app, so the asset is copied
+                //once per app version into a plain file that can always be memory-mapped
+                val file = extractAsset()
+                RandomAccessFile(file, "r").use {
+                    validate(it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length()))?.let { db ->
+                        return db
+                    }
+                }
+                file.delete()
+            } catch (e: Throwable) {
+                LogCat.logException(e, "DeviceDb")
+            }
+            return try {
+                //No space for the copy - fallback to the heap copy
+                val bytes = AndroidContext.appContext.assets.open(FILE_NAME).use {
+                    it.readBytes()
+                }
+                validate(ByteBuffer.wrap(bytes))
+            } catch (e: Throwable) {
+                LogCat.logException(e, "DeviceDb")
+                null
+            }
+        }
+
+        private fun extractAsset(): File {
+            val context = AndroidContext.appContext
+            val packageInfo = context.packageManager.getPackageInfo(context.packageName, 0)
+            val version = "${PackageInfoCompat.getLongVersionCode(packageInfo)}-${packageInfo.lastUpdateTime}"
+            val dir = File(ContextCompat.getNoBackupFilesDir(context), "devicedb")
+            val file = File(dir, "asset-$version-$FILE_NAME")
+            if (file.exists())
+                return file
+            dir.mkdirs()
+            //copies of the previous app versions
+            dir.listFiles()?.forEach {
+                it.delete()
+            }
+            val tmp = File(dir, file.name + ".tmp")
+            context.assets.open(FILE_NAME).use { input ->
+                FileOutputStream(tmp).use { output ->
+                    input.copyTo(output, 16 * 1024)
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete()
+                throw IllegalStateException("Unable to replace $file")
+            }
+            return file
+        }
+
+        /**
+         * @return reader of the database in [buffer], or null if it is not in the supported format
+         */
+        fun validate(buffer: ByteBuffer): DeviceDb? {
+            if (buffer.capacity() < HEADER_SIZE * 4 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                return null
+            return DeviceDb(buffer)
+        }
+
+        private fun refreshIfNeeded() {
+            val file = cachedFile()
+            if (file.exists() && abs(System.currentTimeMillis() - file.lastModified()) < TimeUnit.DAYS.toMillis(30))
+                return
+            if (!loadingInProgress.compareAndSet(false, true))
+                return
+            ExecutorHelper.startOnBackground {
+                try {
+                    val sharedPreferences =
+                        SharedPreferenceProvider.getPreferences(DeviceInfoManager.PREF_NAME)
+                    if (NetworkApi.hasInternet() && !sharedPreferences.getBoolean(
+                            "strictMatch",
+                            false
+                        )
+                    ) {
+                        //unchanged upstream files cost a single 304 each
+                        val byBrand = File(file.parentFile, "by_brand.json")
+                        val devices = File(file.parentFile, "devices.json")
+                        val byBrandUpdated = NetworkApi.download(BY_BRAND_URL, byBrand)
+                        val devicesUpdated = NetworkApi.download(DEVICES_URL, devices)
+                        if (byBrandUpdated || devicesUpdated || !file.exists()) {
+                            Writer().write(byBrand.bufferedReader(), devices.bufferedReader(), file)
+                            instance = null
+                        } else
+                            file.setLastModified(System.currentTimeMillis())
+                    }
+                } catch (e: Throwable) {
+                    LogCat.logException(e, "DeviceDb")
+                } finally {
+                    loadingInProgress.set(false)
+                }
+            }
+        }
+    }
+
+    private fun header(field: Int): Int = buffer.getInt(field * 4)
+
+    val specsCount: Int
+        get() = header(SPECS)
+
+    val nameIndex: DeviceNameIndex by lazy {
+        DeviceNameIndex(specsCount, ::getSpecName)
+    }
+
+    fun getString(id: Int): String? {
+        if (id < 0)
+            return null
+        val offset = buffer.getInt(header(STRINGS + 1) + id * 4)
+        val bytes = ByteArray(buffer.getShort(offset).toInt() and 0xFFFF)
+        buffer.duplicate().apply { position(offset + 2) }.get(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    /**
+     * Name of the first by_brand.json entry with the same (normalized) model
+     */
+    fun findNameByModel(model: String): String? =
+        find(MODEL_INDEX, normalize(model)).firstOrNull()?.let {
+            getString(buffer.getInt(header(MODELS + 1) + it * 4))
+        }
+
+    /**
+     * Name of the first by_brand.json entry with the same (normalized) device codename
+     */
+    fun findNameByDevice(device: String): String? =
+        find(DEVICE_INDEX, normalize(device)).firstOrNull()?.let {
+            getString(buffer.getInt(header(MODELS + 1) + it * 4))
+        }
+
+    /**
+     * devices.json records whose name equals (ignoring case) to the given one, in the file order
+     */
+    fun findSpecsByName(name: String): IntArray =
+        find(SPEC_NAME_INDEX, name.lowercase(Locale.ROOT))
+
+    /**
+     * devices.json records with the given codename, in the file order
+     */
+    fun findSpecsByCodename(codename: String): IntArray = find(SPEC_CODENAME_INDEX, codename)
+
+    fun getSpecName(record: Int): String? = getString(buffer.getInt(header(SPECS + 1) + record * 16 + 8))
+
+    fun getSpec(record: Int): DeviceSpec {
+        val offset = header(SPECS + 1) + record * 16
+        return DeviceSpec(
+            brand = getString(buffer.getInt(offset)),
+            codename = getString(buffer.getInt(offset + 4)),
+            name = getString(buffer.getInt(offset + 8)),
+            specs = Specs(sensors = getString(buffer.getInt(offset + 12)))
+        )
+    }
+
+    //Entries with the same key are sorted by record id, so the file order is preserved
+    private fun find(field: Int, key: String): IntArray {
+        val count = header(field)
+        val offset = header(field + 1)
+        var low = 0
+        var high = count
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if ((getString(buffer.getInt(offset + mid * 8)) ?: "") < key)
+                low = mid + 1
+            else
+                high = mid
+        }
+        var end = low
+        while (end < count && getString(buffer.getInt(offset + end * 8)) == key)
+            end++
+        return IntArray(end - low) {
+            buffer.getInt(offset + (low + it) * 8 + 4)
+        }
+    }
+
+    /**
+     * Runtime counterpart of common/device-db.gradle, used for the databases downloaded from the web
+     */
+    private class Writer {
+        private val strings = ArrayList<String>()
+        private val ids = HashMap<String, Int>()
+        private val models = ArrayList<Int>()
+        private val modelIndex = ArrayList<IntArray>()
+        private val deviceIndex = ArrayList<IntArray>()
+        private val specs = ArrayList<IntArray>()
+        private val specNameIndex = ArrayList<IntArray>()
+        private val specCodenameIndex = ArrayList<IntArray>()
+
+        fun write(byBrand: Reader, devices: Reader, output: File) {
+            JsonReader(byBrand).use { readBrands(it) }
+            JsonReader(devices).use { readDevices(it) }
+            val comparator = Comparator<IntArray> { a, b ->
+                val r = strings[a[0]].compareTo(strings[b[0]])
+                if (r != 0) r else a[1].compareTo(b[1])
+            }
+            for (index in listOf(modelIndex, deviceIndex, specNameIndex, specCodenameIndex))
+                index.sortWith(comparator)
+
+            val bytes = strings.map { it.toByteArray(Charsets.UTF_8) }
+            var offset = HEADER_SIZE * 4
+            val stringsOffset = offset
+            offset += strings.size * 4
+            val stringOffsets = IntArray(strings.size)
+            for (i in bytes.indices) {
+                if (bytes[i].size > 0xFFFF)
+                    throw IllegalStateException("String is too long: ${strings[i]}")
+                stringOffsets[i] = offset
+                offset += 2 + bytes[i].size
+            }
+            val modelsOffset = offset
+            offset += models.size * 4
+            val modelIndexOffset = offset
+            offset += modelIndex.size * 8
+            val deviceIndexOffset = offset
+            offset += deviceIndex.size * 8
+            val specsOffset = offset
+            offset += specs.size * 16
+            val specNameIndexOffset = offset
+            offset += specNameIndex.size * 8
+            val specCodenameIndexOffset = offset
+
+            val tmp = File(output.parentFile, "${output.name}.tmp")
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                for (i in intArrayOf(
+                    MAGIC, VERSION, strings.size, stringsOffset,
+                    models.size, modelsOffset, modelIndex.size, modelIndexOffset,
+                    deviceIndex.size, deviceIndexOffset,
+                    specs.size, specsOffset, specNameIndex.size, specNameIndexOffset,
+                    specCodenameIndex.size, specCodenameIndexOffset
+                )) out.writeInt(i)
+                for (i in stringOffsets) out.writeInt(i)
+                for (b in bytes) {
+                    out.writeShort(b.size)
+                    out.write(b)
+                }
+                for (i in models) out.writeInt(i)
+                for (index in listOf(modelIndex, deviceIndex))
+                    for (e in index) {
+                        out.writeInt(e[0])
+                        out.writeInt(e[1])
+                    }
+                for (spec in specs)
+                    for (i in spec) out.writeInt(i)
+                for (index in listOf(specNameIndex, specCodenameIndex))
+                    for (e in index) {
+                        out.writeInt(e[0])
+                        out.writeInt(e[1])
+                    }
+            }
+            if (!tmp.renameTo(output)) {
+                tmp.delete()
+                throw IllegalStateException("Unable to replace $output")
+            }
+        }
+
+        private fun intern(s: String?): Int {
+            if (s == null)
+                return -1
+            return ids[s] ?: strings.size.also {
+                strings.add(s)
+                ids[s] = it
+            }
+        }
+
+        private fun readBrands(reader: JsonReader) {
+            reader.beginObject()
+            while (reader.hasNext()) {
+                reader.nextName()
+                reader.beginArray()
+                while (reader.hasNext()) {
+                    var name: String? = null
+                    var model: String? = null
+                    var device: String? = null
+                    reader.beginObject()
+                    while (reader.hasNext()) {
+                        when (reader.nextName()) {
+                            "name" -> name = reader.nextStringOrNull()
+                            "model" -> model = reader.nextStringOrNull()
+                            "device" -> device = reader.nextStringOrNull()
+                            else -> reader.skipValue()
+                        }
+                    }
+                    reader.endObject()
+                    if (name.isNullOrEmpty())
+                        continue
+                    val record = models.size
+                    models.add(intern(name))
+                    if (!model.isNullOrEmpty())
+                        modelIndex.add(intArrayOf(intern(normalize(model)), record))
+                    if (!device.isNullOrEmpty())
+                        deviceIndex.add(intArrayOf(intern(normalize(device)), record))
+                }
+                reader.endArray()
+            }
+            reader.endObject()
+        }
+
+        private fun readDevices(reader: JsonReader) {
+            reader.beginArray()
+            while (reader.hasNext()) {
+                var brand: String? = null
+                var codename: String? = null
+                var name: String? = null
+                var sensors: String? = null
+                reader.beginObject()
+                while (reader.hasNext()) {
+                    when (reader.nextName()) {
+                        "brand" -> brand = reader.nextStringOrNull()
+                        "codename" -> codename = reader.nextStringOrNull()
+                        "name" -> name = reader.nextStringOrNull()
+                        "specs" -> if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                            reader.beginObject()
+                            while (reader.hasNext()) {
+                                if (reader.nextName() == "sensors")
+                                    sensors = reader.nextStringOrNull()
+                                else
+                                    reader.skipValue()
+                            }
+                            reader.endObject()
+                        } else reader.skipValue()
+
+                        else -> reader.skipValue()
+                    }
+                }
+                reader.endObject()
+                val record = specs.size
+                specs.add(intArrayOf(intern(brand), intern(codename), intern(name), intern(sensors)))
+                if (name != null)
+                    specNameIndex.add(intArrayOf(intern(name.lowercase(Locale.ROOT)), record))
+                if (codename != null)
+                    specCodenameIndex.add(intArrayOf(intern(codename), record))
+            }
+            reader.endArray()
+        }
+
+        private fun JsonReader.nextStringOrNull(): String? {
+            if (peek() == JsonToken.NULL) {
+                nextNull()
+                return null
+            }
+            return nextString()
+        }
+    }
+}
@@ -21,28 +21,18 @@ package dev.skomlach.common.device
 
 import android.os.Build
 import android.os.Looper
+import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
-import com.google.gson.Gson
-import dev.skomlach.common.contextprovider.AndroidContext
 import dev.skomlach.common.device.DeviceModel.getNames
 import dev.skomlach.common.logging.LogCat
-import dev.skomlach.common.misc.ExecutorHelper
-import dev.skomlach.common.network.NetworkApi
 import dev.skomlach.common.storage.SharedPreferenceProvider.getPreferences
-import dev.skomlach.common.translate.LocalizationHelper
-import java.io.ByteArrayOutputStream
-import java.io.File
-import java.lang.Math.abs
-import java.nio.charset.Charset
 import java.util.Locale
-import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicBoolean
+import java.util.TreeSet
 import java.util.regex.Pattern
 
 object DeviceInfoManager {
     const val PREF_NAME = "BiometricCompat_DeviceInfo-V3"
     private val pattern = Pattern.compile("\\((.*?)\\)+")
-    private val loadingInProgress = AtomicBoolean(false)
 
     fun hasBiometricSensors(deviceInfo: DeviceInfo?): Boolean {
         return hasFingerprint(deviceInfo) || hasFaceID(deviceInfo) || hasIrisScanner(deviceInfo) || hasPalmID(
@@ -173,11 +163,7 @@ object DeviceInfoManager {
             return
         }
         val names = getNames()
-        val devicesList = try {
-            Gson().fromJson(getJSON(), Array<DeviceSpec>::class.java)?:arrayOf<DeviceSpec>()
-        } catch (e: Throwable) {
-            arrayOf<DeviceSpec>()
-        }
+        val db = DeviceDb.get()
         for (m in names) {
             try {
                 val first = m.first
@@ -188,7 +174,7 @@ object DeviceInfoManager {
                         break
                     val second = join(secondArray, " ", limit)
                     deviceInfo = loadDeviceInfo(
-                        devicesList,
+                        db ?: break,
                         first,
                         second,
                         DeviceModel.brand,
@@ -265,71 +251,99 @@ object DeviceInfoManager {
     }
 
     private fun loadDeviceInfo(
-        devicesList: Array<DeviceSpec>,
+        db: DeviceDb,
         modelReadableName: String,
         model: String,
         brand: String,
         codeName: String
     ): DeviceInfo? {
         try {
-            val info = findDeviceInfo(devicesList, model, brand, codeName)
+            val info = findDeviceInfo(db, model, brand, codeName)
             if (info != null)
                 return info
 
-            return findDeviceInfo(devicesList, modelReadableName, brand, codeName)
+            return findDeviceInfo(db, modelReadableName, brand, codeName)
         } catch (e: Throwable) {
             LogCat.logException(e, "DeviceInfoManager")
             return null
-        } finally {
-            System.gc()
         }
     }
 
     private fun findDeviceInfo(
-        devicesList: Array<DeviceSpec>,
+        db: DeviceDb,
         model: String,
         brand: String,
         codeName: String
     ): DeviceInfo? {
-        LogCat.log("DeviceInfoManager: findDeviceInfo(${devicesList.size}, $model, $brand, $codeName)")
-        var firstFound: DeviceInfo? = null
-        devicesList.forEach {
-            val m = if (it.name?.startsWith(
-                    it.brand ?: "",
-                    ignoreCase = true
-                ) == true
-            ) capitalize(it.name) else capitalize(it.brand) + " " + capitalize(it.name)
+        val record = findSpec(db, model, brand, codeName)
+        if (record < 0)
+            return null
+        val spec = db.getSpec(record)
+        return DeviceInfo(getReadableName(spec), getSensors(spec))
+    }
 
-            if (it.name.equals(model, ignoreCase = true) || (brand.contains(
-                    it.brand.toString(),
-                    ignoreCase = true
-                ) && it.codename == codeName)
-            ) {
-                LogCat.log("DeviceInfoManager: (1) $it")
-                return DeviceInfo(m, getSensors(it))
-            } else if (firstFound == null) {
-                if (it.name?.contains(model, ignoreCase = true) == true) {
-                    LogCat.log("DeviceInfoManager: (2) $it")
-                    firstFound = DeviceInfo(m, getSensors(it))
-                } else {
-                    val arr = splitString(model, " ")
-                    var i = arr.size
-                    for (s in arr) {
-                        if (i < 2) //Device should have at least brand + model
-                            break
-                        val shortName = join(arr, " ", i)
-                        if (it.name?.contains(shortName, ignoreCase = true) == true) {
-                            LogCat.log("DeviceInfoManager: (3) $it")
-                            firstFound = DeviceInfo(m, getSensors(it))
-                        }
-                        i--
-                    }
+    /**
+     * @return devices.json record that matches the model, or -1
+     */
+    @VisibleForTesting
+    internal fun findSpec(
+        db: DeviceDb,
+        model: String,
+        brand: String,
+        codeName: String
+    ): Int {
+        LogCat.log("DeviceInfoManager: findDeviceInfo(${db.specsCount}, $model, $brand, $codeName)")
+        //Exact match by name or by brand+codename; the first one in the file order wins
+        var exact = db.findSpecsByName(model).firstOrNull() ?: Int.MAX_VALUE
+        for (record in db.findSpecsByCodename(codeName)) {
+            if (record >= exact)
+                break
+            if (brand.contains(db.getSpec(record).brand.toString(), ignoreCase = true)) {
+                exact = record
+                break
+            }
+        }
+        if (exact != Int.MAX_VALUE) {
+            LogCat.log("DeviceInfoManager: (1) ${db.getSpec(exact)}")
+            return exact
+        }
 
+        //Fuzzy match: the first record whose name contains the model or its shorter prefix (at least brand + model)
+        val arr = splitString(model, " ")
+        val shortNames = mutableListOf<String>()
+        var i = arr.size
+        for (s in arr) {
+            if (i < 2) //Device should have at least brand + model
+                break
+            shortNames.add(join(arr, " ", i))
+            i--
+        }
+        val candidates = TreeSet<Int>()
+        for (query in shortNames + model)
+            for (record in db.nameIndex.candidates(query))
+                candidates.add(record)
+        for (record in candidates) {
+            val name = db.getSpecName(record) ?: continue
+            if (name.contains(model, ignoreCase = true)) {
+                LogCat.log("DeviceInfoManager: (2) ${db.getSpec(record)}")
+                return record
+            }
+            for (shortName in shortNames) {
+                if (name.contains(shortName, ignoreCase = true)) {
+                    LogCat.log("DeviceInfoManager: (3) ${db.getSpec(record)}")
+                    return record
                 }
             }
         }
+        return -1
+    }
 
-        return firstFound
+    private fun getReadableName(spec: DeviceSpec): String {
+        return if (spec.name?.startsWith(
+                spec.brand ?: "",
+                ignoreCase = true
+            ) == true
+        ) capitalize(spec.name) else capitalize(spec.brand) + " " + capitalize(spec.name)
     }
 
     private fun getSensors(spec: DeviceSpec): Set<String> {
@@ -349,95 +363,6 @@ object DeviceInfoManager {
         return list
     }
 
-    //tools
-    //https://github.com/nowrom/devices/
-    private fun getJSON(): String? {
-        var reload = false
-        try {
-            try {
-                val file = File(AndroidContext.appContext.cacheDir, "devices.json")
-                if (file.parentFile?.exists() == false) {
-                    file.parentFile?.mkdirs()
-                }
-                file.also {
-                    if (it.exists()) {
-                        if (abs(System.currentTimeMillis() - it.lastModified()) >= TimeUnit.DAYS.toMillis(
-                                30
-                            )
-                        ) {
-                            reload = true
-                        }
-                        return it.readText(
-                            Charset.forName("UTF-8")
-                        )
-                    } else {
-                        reload = true
-                    }
-                }
-            } catch (e: Throwable) {
-                LogCat.logException(e)
-            }
-            try {
-                val inputStream =
-                    AndroidContext.appContext.assets.open("devices.json")
-                val byteArrayOutputStream = ByteArrayOutputStream()
-                NetworkApi.fastCopy(inputStream, byteArrayOutputStream)
-                inputStream.close()
-                byteArrayOutputStream.close()
-                val data = byteArrayOutputStream.toByteArray()
-                return String(data, Charset.forName("UTF-8")).also { data ->
-                    saveToCache(data)
-                }
-            } catch (e: Throwable) {
-                reload = true
-                LogCat.logException(e)
-            }
-            return null
-        } finally {
-            if (reload && !loadingInProgress.get()) {
-                loadingInProgress.set(true)
-                ExecutorHelper.startOnBackground {
-                    val sharedPreferences =
-                        getPreferences(DeviceInfoManager.PREF_NAME)
-                    if (NetworkApi.hasInternet() && !sharedPreferences.getBoolean(
-                            "strictMatch",
-                            false
-                        )
-                    ) {
-                        try {
-                            val data =
-                                LocalizationHelper.fetchFromWeb("https://github.com/nowrom/devices/blob/main/devices.json?raw=true")
-                            saveToCache(data ?: return@startOnBackground)
-                        } catch (e: Throwable) {
-                            LogCat.logException(e)
-                        } finally {
-                            loadingInProgress.set(false)
-                        }
-                    } else
-                        loadingInProgress.set(false)
-                }
-            }
-        }
-    }
-
-    private fun saveToCache(data: String) {
-        try {
-            val file = File(AndroidContext.appContext.cacheDir, "devices.json")
-            if (file.parentFile?.exists() == false) {
-                file.parentFile?.mkdirs()
-            }
-            file.also {
-                it.delete()
-                it.writeText(
-                    data,
-                    Charset.forName("UTF-8")
-                )
-            }
-        } catch (e: Throwable) {
-            LogCat.logException(e)
-        }
-    }
-
     interface OnDeviceInfoListener {
         fun onReady(deviceInfo: DeviceInfo?)
     }
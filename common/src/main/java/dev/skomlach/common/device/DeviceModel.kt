@@ -24,20 +24,9 @@ import androidx.annotation.WorkerThread
 import com.jaredrummler.android.device.DeviceName
 import dev.skomlach.common.contextprovider.AndroidContext
 import dev.skomlach.common.logging.LogCat
-import dev.skomlach.common.misc.ExecutorHelper
 import dev.skomlach.common.misc.SystemPropertiesProxy
-import dev.skomlach.common.network.NetworkApi
-import dev.skomlach.common.storage.SharedPreferenceProvider
-import dev.skomlach.common.translate.LocalizationHelper
-import org.json.JSONObject
-import java.io.ByteArrayOutputStream
-import java.io.File
-import java.nio.charset.Charset
-import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicBoolean
 
 object DeviceModel {
-    private val loadingInProgress = AtomicBoolean(false)
     var brand = (Build.BRAND ?: "").replace("  ", " ")
         private set
     val model = (Build.MODEL ?: "").replace("  ", " ")
@@ -142,160 +131,30 @@ object DeviceModel {
         LogCat.log("AndroidModel.getNameFromAssets started")
 
         try {
-            val json = JSONObject(getJSON() ?: return null)
-            for (key in json.keys()) {
-
-                val details = json.getJSONArray(key)
-                for (i in 0 until details.length()) {
-                    val jsonObject = details.getJSONObject(i)
-                    val m = jsonObject.getString("model")
-                    val name = jsonObject.getString("name")
-                    val d = jsonObject.getString("device")
-                    if (name.isNullOrEmpty()) {
-                        continue
-                    } else if (!m.isNullOrEmpty() && (model.equals(
-                            m,
-                            ignoreCase = true
-                        ) || model.filter { c ->
-                            c.isLetterOrDigit() || c.isWhitespace()
-                        }.equals(m.filter { c ->
-                            c.isLetterOrDigit() || c.isWhitespace()
-                        }, ignoreCase = true))
-                    ) {
-                        return mutableSetOf<String>().apply {
-                            this.add(getName(brand, getFullName(model)))
-                            this.add(getName(brand, getFullName(name)))
-                        }.also {
-                            LogCat.log("AndroidModel.getNameFromAssets1 - $jsonObject -> $it")
-                        }
-                    }
+            val db = DeviceDb.get() ?: return null
+            db.findNameByModel(model)?.let { name ->
+                return mutableSetOf<String>().apply {
+                    this.add(getName(brand, getFullName(model)))
+                    this.add(getName(brand, getFullName(name)))
+                }.also {
+                    LogCat.log("AndroidModel.getNameFromAssets1 - $model -> $it")
                 }
             }
-
-            for (key in json.keys()) {
-                val details = json.getJSONArray(key)
-                for (i in 0 until details.length()) {
-                    val jsonObject = details.getJSONObject(i)
-                    val m = jsonObject.getString("model")
-                    val name = jsonObject.getString("name")
-                    val d = jsonObject.getString("device")
-                    if (name.isNullOrEmpty()) {
-                        continue
-                    } else if (!d.isNullOrEmpty() && (device.equals(d,
-                            ignoreCase = true
-                        ) || device.filter { c ->
-                            c.isLetterOrDigit() || c.isWhitespace()
-                        }.equals(d.filter { c ->
-                            c.isLetterOrDigit() || c.isWhitespace()
-                        }, ignoreCase = true))
-                    ) {
-                        return mutableSetOf<String>().apply {
-                            this.add(getName(brand, getFullName(model)))
-                            this.add(getName(brand, getFullName(name)))
-                        }.also {
-                            LogCat.log("AndroidModel.getNameFromAssets2 - $jsonObject -> $it")
-                        }
-                    }
+            db.findNameByDevice(device)?.let { name ->
+                return mutableSetOf<String>().apply {
+                    this.add(getName(brand, getFullName(model)))
+                    this.add(getName(brand, getFullName(name)))
+                }.also {
+                    LogCat.log("AndroidModel.getNameFromAssets2 - $device -> $it")
                 }
             }
         } catch (e: Throwable) {
             LogCat.logException(e)
-        } finally {
-            System.gc()
         }
         LogCat.log("AndroidModel.getNameFromAssets3 - null")
         return null
     }
 
-    //tools
-    //https://github.com/androidtrackers/certified-android-devices/
-    private fun getJSON(): String? {
-        var reload = false
-        try {
-            try {
-                val file = File(AndroidContext.appContext.cacheDir, "by_brand.json")
-                if (file.parentFile?.exists() == false) {
-                    file.parentFile?.mkdirs()
-                }
-                file.also {
-                    if (it.exists()) {
-                        if (Math.abs(System.currentTimeMillis() - it.lastModified()) >= TimeUnit.DAYS.toMillis(
-                                30
-                            )
-                        ) {
-                            reload = true
-                        }
-                        return it.readText(
-                            Charset.forName("UTF-8")
-                        )
-                    } else {
-                        reload = true
-                    }
-                }
-            } catch (e: Throwable) {
-                LogCat.logException(e)
-            }
-            try {
-                val inputStream =
-                    AndroidContext.appContext.assets.open("by_brand.json")
-                val byteArrayOutputStream = ByteArrayOutputStream()
-                NetworkApi.fastCopy(inputStream, byteArrayOutputStream)
-                inputStream.close()
-                byteArrayOutputStream.close()
-                val data = byteArrayOutputStream.toByteArray()
-                return String(data, Charset.forName("UTF-8")).also { data ->
-                    saveToCache(data)
-                }
-            } catch (e: Throwable) {
-                reload = true
-                LogCat.logException(e)
-            }
-            return null
-        } finally {
-            if (reload && !loadingInProgress.get()) {
-                loadingInProgress.set(true)
-                ExecutorHelper.startOnBackground {
-                    val sharedPreferences =
-                        SharedPreferenceProvider.getPreferences(DeviceInfoManager.PREF_NAME)
-                    if (NetworkApi.hasInternet() && !sharedPreferences.getBoolean(
-                            "strictMatch",
-                            false
-                        )
-                    ) {
-                        try {
-                            val data =
-                                LocalizationHelper.fetchFromWeb("https://github.com/androidtrackers/certified-android-devices/blob/master/by_brand.json?raw=true")
-                            saveToCache(data ?: return@startOnBackground)
-                        } catch (e: Throwable) {
-                            LogCat.logException(e)
-                        } finally {
-                            loadingInProgress.set(false)
-                        }
-                    } else
-                        loadingInProgress.set(false)
-                }
-            }
-        }
-    }
-
-    private fun saveToCache(data: String) {
-        try {
-            val file = File(AndroidContext.appContext.cacheDir, "by_brand.json")
-            if (file.parentFile?.exists() == false) {
-                file.parentFile?.mkdirs()
-            }
-            file.also {
-                it.delete()
-                it.writeText(
-                    data,
-                    Charset.forName("UTF-8")
-                )
-            }
-        } catch (e: Throwable) {
-            LogCat.logException(e)
-        }
-    }
-
     @WorkerThread
     private fun getNameFromDatabase(): List<String?>? {
         val info = DeviceName
@@ -0,0 +1,97 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.device
+
+/**
+ * Trigram inverted index over the device names of [DeviceDb] (records `0 until size`, names from [getName]).
+ *
+ * Used only as a prefilter: every record whose name contains the query (ignoring case)
+ * is returned, the caller still verifies candidates with the regular `contains` check.
+ */
+internal class DeviceNameIndex(private val size: Int, getName: (Int) -> String?) {
+    private val postings = HashMap<Long, IntArray>()
+
+    init {
+        val lists = HashMap<Long, MutableList<Int>>()
+        for (record in 0 until size) {
+            val name = getName(record) ?: continue
+            val folded = fold(name)
+            val seen = HashSet<Long>()
+            for (i in 0..folded.length - 3) {
+                val trigram = trigram(folded, i)
+                if (seen.add(trigram))
+                    lists.getOrPut(trigram) { mutableListOf() }.add(record)
+            }
+        }
+        for ((trigram, list) in lists)
+            postings[trigram] = list.toIntArray()
+    }
+
+    /**
+     * Records (ascending) whose name may contain [query]
+     */
+    fun candidates(query: String): IntArray {
+        val folded = fold(query)
+        if (folded.length < 3)
+            return IntArray(size) { it }
+        var lists = ArrayList<IntArray>()
+        for (i in 0..folded.length - 3) {
+            lists.add(postings[trigram(folded, i)] ?: return IntArray(0))
+        }
+        lists = ArrayList(lists.sortedBy { it.size })
+        var result = lists[0]
+        for (i in 1 until lists.size) {
+            result = intersect(result, lists[i])
+            if (result.isEmpty())
+                break
+        }
+        return result
+    }
+
+    private fun intersect(a: IntArray, b: IntArray): IntArray {
+        val result = IntArray(minOf(a.size, b.size))
+        var i = 0
+        var j = 0
+        var k = 0
+        while (i < a.size && j < b.size) {
+            when {
+                a[i] < b[j] -> i++
+                a[i] > b[j] -> j++
+                else -> {
+                    result[k++] = a[i]
+                    i++
+                    j++
+                }
+            }
+        }
+        return result.copyOf(k)
+    }
+
+    private fun trigram(s: String, i: Int): Long =
+        (s[i].code.toLong() shl 32) or (s[i + 1].code.toLong() shl 16) or s[i + 2].code.toLong()
+
+    //Same char equivalence as String.contains(ignoreCase = true)
+    private fun fold(s: String): String {
+        val chars = CharArray(s.length)
+        for (i in s.indices)
+            chars[i] = s[i].uppercaseChar().lowercaseChar()
+        return String(chars)
+    }
+}
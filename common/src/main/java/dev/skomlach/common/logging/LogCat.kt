@@ -25,22 +25,45 @@ import dev.skomlach.common.BuildConfig
 object LogCat {
     var DEBUG = BuildConfig.DEBUG
     var externalLogger: ExternalLogger? = null
+
+    //Minimal level (android.util.Log priority) for the messages
+    var LEVEL = Log.DEBUG
+
+    //Caller info requires a stack walk, so it is opt-in
+    var CALLER_INFO = false
+    private val buffer = LogRingBuffer(256) { record ->
+        val logger = externalLogger ?: return@LogRingBuffer
+        val m = arrayOf("LogCat", record.caller, *record.msgs)
+        when (record.level) {
+            Log.ERROR -> if (record.throwable != null)
+                logger.logException(record.throwable, *m)
+            else
+                logger.logError(*m)
+
+            else -> logger.log(*m)
+        }
+    }
     private val method: String
         get() {
             val elements = Thread.currentThread().stackTrace
-            val el = elements[3]
+            val el = elements[4]
             return el.className + ":" + el.methodName + ", " + el.fileName + ":" + el.lineNumber
         }
 
+    fun isLoggable(level: Int): Boolean = DEBUG && level >= LEVEL
+
+    inline fun log(msg: () -> Any?) {
+        if (isLoggable(Log.DEBUG)) log(msg())
+    }
+
+    inline fun logError(msg: () -> Any?) {
+        if (isLoggable(Log.ERROR)) logError(msg())
+    }
 
     fun logError(vararg msgs: Any?) {
-        if (DEBUG) {
-            val m = mutableListOf(*msgs).also {
-                it.add(0, "LogCat")
-                it.add(1, method)
-            }
-            externalLogger?.logError(*m.toTypedArray())
-            if (DEBUG) Log.e("LogCat", listOf(*msgs).toString())
+        if (isLoggable(Log.ERROR)) {
+            enqueue(Log.ERROR, null, msgs)
+            Log.e("LogCat", msgs.contentToString())
         }
     }
 
@@ -50,31 +73,28 @@ object LogCat {
 
 
     fun logException(e: Throwable?, vararg msgs: Any?) {
-        if (DEBUG) {
-            val m = mutableListOf(*msgs).also {
-                it.add(0, "LogCat")
-                it.add(1, method)
-            }
-            externalLogger?.logException(e, *m.toTypedArray())
-            Log.e("LogCat", listOf(*msgs).toString(), e)
+        if (isLoggable(Log.ERROR)) {
+            enqueue(Log.ERROR, e, msgs)
+            Log.e("LogCat", msgs.contentToString(), e)
         }
     }
 
 
     fun log(vararg msgs: Any?) {
-        if (DEBUG) {
-            val m = mutableListOf(*msgs).also {
-                it.add(0, "LogCat")
-                it.add(1, method)
-            }
-            externalLogger?.log(*m.toTypedArray())
-            Log.d("LogCat", listOf(*msgs).toString())
+        if (isLoggable(Log.DEBUG)) {
+            enqueue(Log.DEBUG, null, msgs)
+            Log.d("LogCat", msgs.contentToString())
         }
     }
 
+    private fun enqueue(level: Int, e: Throwable?, msgs: Array<out Any?>) {
+        if (externalLogger != null)
+            buffer.add(level, e, if (CALLER_INFO) method else null, msgs)
+    }
+
     interface ExternalLogger {
         fun log(vararg msgs: Any?)
         fun logError(vararg msgs: Any?)
         fun logException(e: Throwable?, vararg msgs: Any?)
     }
-}
\ No newline at end of file
+}
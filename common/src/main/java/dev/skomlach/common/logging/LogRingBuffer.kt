@@ -0,0 +1,87 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.logging
+
+import dev.skomlach.common.misc.ExecutorHelper
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Lock-free multi-producer/single-consumer ring of log records.
+ *
+ * Producers only claim a slot and publish the record; delivery to the (possibly slow) external logger
+ * happens on the background executor. If producers lap the consumer, the oldest records are dropped.
+ */
+class LogRingBuffer(size: Int, private val sink: (Record) -> Unit) {
+    class Record(
+        val seq: Long,
+        val level: Int,
+        val throwable: Throwable?,
+        val caller: String?,
+        val msgs: Array<out Any?>
+    )
+
+    private val capacity = Integer.highestOneBit(size.coerceAtLeast(2))
+    private val mask = capacity - 1
+    private val ring = AtomicReferenceArray<Record?>(capacity)
+    private val writeIndex = AtomicLong()
+    private val draining = AtomicBoolean(false)
+    private val droppedCounter = AtomicLong()
+    private var readIndex = 0L //consumer only
+    private val drainTask = Runnable { drain() }
+
+    val dropped: Long
+        get() = droppedCounter.get()
+
+    fun add(level: Int, throwable: Throwable?, caller: String?, msgs: Array<out Any?>) {
+        val seq = writeIndex.getAndIncrement()
+        ring.set((seq and mask.toLong()).toInt(), Record(seq, level, throwable, caller, msgs))
+        if (draining.compareAndSet(false, true))
+            ExecutorHelper.startOnBackground(drainTask)
+    }
+
+    private fun drain() {
+        do {
+            while (true) {
+                val slot = (readIndex and mask.toLong()).toInt()
+                val record = ring.get(slot) ?: break //not published yet
+                if (record.seq < readIndex)
+                    break //stale record, the new one is not published yet
+                ring.compareAndSet(slot, record, null)
+                if (record.seq > readIndex)
+                    droppedCounter.addAndGet(record.seq - readIndex)
+                readIndex = record.seq + 1
+                try {
+                    sink.invoke(record)
+                } catch (e: Throwable) {
+                    android.util.Log.e("LogRingBuffer", "sink failed", e)
+                }
+            }
+            draining.set(false)
+            //record may be published between the last check and the flag reset
+        } while (hasPending() && draining.compareAndSet(false, true))
+    }
+
+    private fun hasPending(): Boolean {
+        val record = ring.get((readIndex and mask.toLong()).toInt())
+        return record != null && record.seq >= readIndex
+    }
+}
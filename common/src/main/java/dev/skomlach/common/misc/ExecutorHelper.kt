@@ -19,35 +19,62 @@
 
 package dev.skomlach.common.misc
 
-import android.os.Build
 import android.os.Handler
 import android.os.Looper
+import android.os.Process
 import dev.skomlach.common.logging.LogCat
 import kotlinx.coroutines.Runnable
 import java.util.concurrent.Executor
-import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 
 object ExecutorHelper {
     val handler: Handler = Handler(Looper.getMainLooper())
     val executor: Executor = HandlerExecutor()
-    //https://proandroiddev.com/what-is-faster-and-in-which-tasks-coroutines-rxjava-executor-952b1ff62506
-    val backgroundExecutor: Executor = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-        Executors.newWorkStealingPool(100)
-    } else {
-        Executors.newFixedThreadPool(100)
+    private val cores = Runtime.getRuntime().availableProcessors()
+
+    //Latency-critical lane - module init, crypto and prompt related work
+    val criticalExecutor = InstrumentedExecutor(
+        "BiometricCompat-critical",
+        cores.coerceIn(2, 4),
+        Process.THREAD_PRIORITY_DEFAULT
+    )
+
+    //Bulk lane - JSON parsing, network, blur, etc. Mostly blocked on I/O, so it may be wider than CPU count
+    val backgroundExecutor = InstrumentedExecutor(
+        "BiometricCompat-io",
+        (cores * 2).coerceIn(4, 8),
+        Process.THREAD_PRIORITY_BACKGROUND
+    )
+
+    //Only fires delayed tasks; the work itself is handed over to the lanes
+    private val scheduler = ScheduledThreadPoolExecutor(1) { runnable ->
+        Thread(runnable, "BiometricCompat-scheduler")
     }
 
     fun startOnBackground(task: Runnable, delay: Long) {
-        backgroundExecutor.execute {
-            Thread.sleep(delay)
-            task.run()
-        }
+        scheduler.schedule({ backgroundExecutor.execute(task) }, delay, TimeUnit.MILLISECONDS)
     }
 
     fun startOnBackground(task: Runnable) {
-        backgroundExecutor.execute {
-            task.run()
-        }
+        backgroundExecutor.execute(task)
+    }
+
+    fun startOnCriticalBackground(task: Runnable, delay: Long) {
+        scheduler.schedule({ criticalExecutor.execute(task) }, delay, TimeUnit.MILLISECONDS)
+    }
+
+    fun startOnCriticalBackground(task: Runnable) {
+        criticalExecutor.execute(task)
+    }
+
+    fun getStats(): List<InstrumentedExecutor.Stats> {
+        return listOf(criticalExecutor.getStats(), backgroundExecutor.getStats())
+    }
+
+    fun logStats() {
+        for (stats in getStats())
+            LogCat.log("ExecutorHelper", stats)
     }
 
     fun postDelayed(task: Runnable, delay: Long) {
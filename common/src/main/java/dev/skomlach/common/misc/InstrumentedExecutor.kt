@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.misc
+
+import android.os.Process
+import android.os.SystemClock
+import dev.skomlach.common.logging.LogCat
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Bounded thread pool that records queue wait and run time of every task.
+ *
+ * Histograms use power-of-two millisecond buckets: [0] - <1ms, [1] - <2ms, ... [n-1] - everything longer.
+ */
+class InstrumentedExecutor(
+    val name: String,
+    threads: Int,
+    private val threadPriority: Int
+) : Executor {
+    companion object {
+        const val BUCKETS = 12
+    }
+
+    private val threadCounter = AtomicInteger()
+    private val pool = ThreadPoolExecutor(
+        threads,
+        threads,
+        30L,
+        TimeUnit.SECONDS,
+        LinkedBlockingQueue(),
+        ThreadFactory { runnable ->
+            Thread({
+                Process.setThreadPriority(threadPriority)
+                runnable.run()
+            }, "$name-${threadCounter.incrementAndGet()}")
+        }
+    ).apply {
+        allowCoreThreadTimeOut(true)
+    }
+    private val waitHistogram = AtomicLongArray(BUCKETS)
+    private val runHistogram = AtomicLongArray(BUCKETS)
+    private val maxWait = AtomicLong()
+
+    override fun execute(command: Runnable) {
+        val enqueuedAt = SystemClock.elapsedRealtime()
+        pool.execute {
+            val startedAt = SystemClock.elapsedRealtime()
+            val wait = startedAt - enqueuedAt
+            waitHistogram.incrementAndGet(bucket(wait))
+            var max = maxWait.get()
+            while (wait > max && !maxWait.compareAndSet(max, wait))
+                max = maxWait.get()
+            try {
+                command.run()
+            } catch (e: Throwable) {
+                LogCat.logException(e, name)
+            } finally {
+                runHistogram.incrementAndGet(bucket(SystemClock.elapsedRealtime() - startedAt))
+            }
+        }
+    }
+
+    fun getStats(): Stats {
+        return Stats(
+            name,
+            pool.queue.size,
+            pool.activeCount,
+            pool.completedTaskCount,
+            maxWait.get(),
+            LongArray(BUCKETS) { waitHistogram[it] },
+            LongArray(BUCKETS) { runHistogram[it] }
+        )
+    }
+
+    private fun bucket(ms: Long): Int {
+        var i = 0
+        var limit = 1L
+        while (i < BUCKETS - 1 && ms >= limit) {
+            limit = limit shl 1
+            i++
+        }
+        return i
+    }
+
+    class Stats(
+        val name: String,
+        val queueDepth: Int,
+        val activeCount: Int,
+        val completedCount: Long,
+        val maxWaitMs: Long,
+        val waitHistogram: LongArray,
+        val runHistogram: LongArray
+    ) {
+        override fun toString(): String {
+            return "$name{queue=$queueDepth, active=$activeCount, completed=$completedCount, maxWait=${maxWaitMs}ms, " +
+                    "wait=${waitHistogram.contentToString()}, run=${runHistogram.contentToString()}}"
+        }
+    }
+}
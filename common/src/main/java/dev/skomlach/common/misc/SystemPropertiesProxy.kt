@@ -22,11 +22,87 @@ package dev.skomlach.common.misc
 import android.content.Context
 import dalvik.system.DexFile
 import java.io.File
+import java.lang.reflect.Method
 
 /**
  * This class cannot be instantiated
  */
 object SystemPropertiesProxy {
+    //Read-only properties the library reads itself; they never change while the process is alive
+    private val SNAPSHOT_KEYS = setOf(
+        "ro.build.characteristics",
+        "ro.config.marketing_name",
+        "ro.camera.model"
+    )
+
+    private val systemProperties: Class<*>? by lazy {
+        try {
+            Class.forName("android.os.SystemProperties")
+        } catch (e: Throwable) {
+            null
+        }
+    }
+    private val getMethod: Method? by lazy {
+        getMethod("get", String::class.java)
+    }
+    private val getDefMethod: Method? by lazy {
+        getMethod("get", String::class.java, String::class.java)
+    }
+    private val getIntMethod: Method? by lazy {
+        getMethod("getInt", String::class.java, Int::class.javaPrimitiveType)
+    }
+    private val getLongMethod: Method? by lazy {
+        getMethod("getLong", String::class.java, Long::class.javaPrimitiveType)
+    }
+    private val getBooleanMethod: Method? by lazy {
+        getMethod("getBoolean", String::class.java, Boolean::class.javaPrimitiveType)
+    }
+
+    @Volatile
+    private var snapshot: Map<String, String>? = null
+
+    private fun getMethod(name: String, vararg paramTypes: Class<*>?): Method? {
+        return try {
+            systemProperties?.getMethod(name, *paramTypes)
+        } catch (e: Throwable) {
+            null
+        }
+    }
+
+    /**
+     * Load the snapshot of the library's properties in background
+     */
+    fun preload(context: Context) {
+        if (snapshot == null)
+            ExecutorHelper.startOnBackground {
+                getSnapshot(context)
+            }
+    }
+
+    private fun getSnapshot(context: Context): Map<String, String> {
+        return snapshot ?: getAll(context, SNAPSHOT_KEYS).also {
+            snapshot = it
+        }
+    }
+
+    /**
+     * Get the values for the given keys.
+     *
+     * @return a map with an empty string for each key that isn't found
+     */
+    fun getAll(context: Context, keys: Collection<String>): Map<String, String> {
+        val result = HashMap<String, String>(keys.size)
+        val get = getMethod
+        for (key in keys) {
+            result[key] = try {
+                get?.invoke(null, key) as String? ?: ""
+            } catch (e: Exception) {
+                ""
+            }
+        }
+        return result
+    }
+
     /**
      * Get the value for the given key.
      *
@@ -36,27 +112,15 @@ object SystemPropertiesProxy {
 
     @Throws(IllegalArgumentException::class)
     fun get(context: Context, key: String): String {
-        var ret = ""
-        try {
-            val cl = context.classLoader
-            val SystemProperties = cl.loadClass("android.os.SystemProperties")
-
-//Parameters Types
-            val paramTypes: Array<Class<*>?> = arrayOfNulls(1)
-            paramTypes[0] = String::class.java
-            val get = SystemProperties.getMethod("get", *paramTypes)
-
-            //Parameters
-            val params = arrayOfNulls<Any>(1)
-            params[0] = key
-            ret = get.invoke(SystemProperties, *params) as String
+        if (SNAPSHOT_KEYS.contains(key))
+            return getSnapshot(context)[key] ?: ""
+        return try {
+            getMethod?.invoke(null, key) as String? ?: ""
         } catch (iAE: IllegalArgumentException) {
             throw iAE
         } catch (e: Exception) {
-            ret = ""
-            //FIXME
+            ""
         }
-        return ret
     }
 
     /**
@@ -68,29 +132,13 @@ object SystemPropertiesProxy {
 
     @Throws(IllegalArgumentException::class)
     fun get(context: Context, key: String, def: String): String {
-        var ret = def
-        try {
-            val cl = context.classLoader
-            val SystemProperties = cl.loadClass("android.os.SystemProperties")
-
-//Parameters Types
-            val paramTypes: Array<Class<*>?> = arrayOfNulls(2)
-            paramTypes[0] = String::class.java
-            paramTypes[1] = String::class.java
-            val get = SystemProperties.getMethod("get", *paramTypes)
-
-            //Parameters
-            val params = arrayOfNulls<Any>(2)
-            params[0] = key
-            params[1] = def
-            ret = get.invoke(SystemProperties, *params) as String
+        return try {
+            getDefMethod?.invoke(null, key, def) as String? ?: def
         } catch (iAE: IllegalArgumentException) {
             throw iAE
         } catch (e: Exception) {
-            ret = def
-            //FIXME
+            def
         }
-        return ret
     }
 
     /**
@@ -105,29 +153,13 @@ object SystemPropertiesProxy {
 
     @Throws(IllegalArgumentException::class)
     fun getInt(context: Context, key: String, def: Int): Int {
-        var ret = def
-        try {
-            val cl = context.classLoader
-            val SystemProperties = cl.loadClass("android.os.SystemProperties")
-
-//Parameters Types
-            val paramTypes = arrayOfNulls<Class<*>?>(2)
-            paramTypes[0] = String::class.java
-            paramTypes[1] = Int::class.javaPrimitiveType
-            val getInt = SystemProperties.getMethod("getInt", *paramTypes)
-
-            //Parameters
-            val params = arrayOfNulls<Any>(2)
-            params[0] = key
-            params[1] = def
-            ret = getInt.invoke(SystemProperties, *params) as Int
+        return try {
+            getIntMethod?.invoke(null, key, def) as Int? ?: def
         } catch (iAE: IllegalArgumentException) {
             throw iAE
         } catch (e: Exception) {
-            ret = def
-            //FIXME
+            def
         }
-        return ret
     }
 
     /**
@@ -142,29 +174,13 @@ object SystemPropertiesProxy {
 
     @Throws(IllegalArgumentException::class)
     fun getLong(context: Context, key: String, def: Long): Long {
-        var ret = def
-        try {
-            val cl = context.classLoader
-            val SystemProperties = cl.loadClass("android.os.SystemProperties")
-
-//Parameters Types
-            val paramTypes = arrayOfNulls<Class<*>?>(2)
-            paramTypes[0] = String::class.java
-            paramTypes[1] = Long::class.javaPrimitiveType
-            val getLong = SystemProperties.getMethod("getLong", *paramTypes)
-
-            //Parameters
-            val params = arrayOfNulls<Any>(2)
-            params[0] = key
-            params[1] = def
-            ret = getLong.invoke(SystemProperties, *params) as Long
+        return try {
+            getLongMethod?.invoke(null, key, def) as Long? ?: def
         } catch (iAE: IllegalArgumentException) {
             throw iAE
         } catch (e: Exception) {
-            ret = def
-            //FIXME
+            def
         }
-        return ret
     }
 
     /**
@@ -184,29 +200,13 @@ object SystemPropertiesProxy {
 
     @Throws(IllegalArgumentException::class)
     fun getBoolean(context: Context, key: String, def: Boolean): Boolean {
-        var ret = def
-        try {
-            val cl = context.classLoader
-            val SystemProperties = cl.loadClass("android.os.SystemProperties")
-
-//Parameters Types
-            val paramTypes = arrayOfNulls<Class<*>?>(2)
-            paramTypes[0] = String::class.java
-            paramTypes[1] = Boolean::class.javaPrimitiveType
-            val getBoolean = SystemProperties.getMethod("getBoolean", *paramTypes)
-
-            //Parameters
-            val params = arrayOfNulls<Any>(2)
-            params[0] = key
-            params[1] = def
-            ret = getBoolean.invoke(SystemProperties, *params) as Boolean
+        return try {
+            getBooleanMethod?.invoke(null, key, def) as Boolean? ?: def
         } catch (iAE: IllegalArgumentException) {
             throw iAE
         } catch (e: Exception) {
-            ret = def
-            //FIXME
+            def
         }
-        return ret
     }
 
     /**
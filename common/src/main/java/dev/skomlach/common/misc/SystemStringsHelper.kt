@@ -20,32 +20,71 @@
 package dev.skomlach.common.misc
 
 import android.content.Context
+import androidx.core.os.ConfigurationCompat
 import dev.skomlach.common.logging.LogCat
+import java.lang.reflect.Modifier
+import java.util.concurrent.ConcurrentHashMap
 
 
 object SystemStringsHelper {
-    fun getFromSystem(context: Context, alias: String): String? {
+    //Marks aliases that are missing or empty, so they are not resolved again
+    private const val NOT_FOUND = ""
+
+    //name -> resId of com.android.internal.R$string, built with a single reflective pass
+    private val ids: Map<String, Int> by lazy {
+        val map = HashMap<String, Int>()
         try {
             val fields = Class.forName("com.android.internal.R\$string").declaredFields
             for (field in fields) {
-                if (field.name.equals(alias)) {
-                    LogCat.log("SystemStringsHelper", field.name)
-                    val isAccessible = field.isAccessible
-                    return try {
-                        if (!isAccessible) field.isAccessible = true
-                        val s = context.getString(field[null] as Int)
-                        if (s.isEmpty())
-                            throw RuntimeException("String is empty")
-                        s
-                    } finally {
-                        if (!isAccessible) field.isAccessible = false
-                    }
+                if (!Modifier.isStatic(field.modifiers) || field.type != Int::class.javaPrimitiveType)
+                    continue
+                val isAccessible = field.isAccessible
+                try {
+                    if (!isAccessible) field.isAccessible = true
+                    map[field.name] = field.getInt(null)
+                } catch (e: Throwable) {
+                    LogCat.logException(e)
+                } finally {
+                    if (!isAccessible) field.isAccessible = false
                 }
             }
+            LogCat.log("SystemStringsHelper", "${map.size} ids")
+        } catch (e: Throwable) {
+            LogCat.logException(e)
+        }
+        map
+    }
+
+    //locales -> (alias -> string)
+    private val strings = ConcurrentHashMap<String, ConcurrentHashMap<String, String>>()
+
+    fun prefetch() {
+        ExecutorHelper.startOnBackground {
+            ids
+        }
+    }
+
+    fun getFromSystem(context: Context, alias: String): String? {
+        val locales = ConfigurationCompat.getLocales(context.resources.configuration).toLanguageTags()
+        val cache = strings.getOrPut(locales) { ConcurrentHashMap() }
+        cache[alias]?.let {
+            return it.ifEmpty { null }
+        }
+        var result: String? = null
+        try {
+            val id = ids[alias]
+            if (id != null) {
+                LogCat.log("SystemStringsHelper", alias)
+                val s = context.getString(id)
+                if (s.isEmpty())
+                    throw RuntimeException("String is empty")
+                result = s
+            }
         } catch (e: Throwable) {
             LogCat.logException(e)
         }
-        return null
+        cache[alias] = result ?: NOT_FOUND
+        return result
     }
 
-}
\ No newline at end of file
+}
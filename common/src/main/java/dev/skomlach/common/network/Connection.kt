@@ -44,7 +44,7 @@ object Connection {
         Collections.synchronizedList(ArrayList<NetworkListener>())
     private val screenLockReceiver: BroadcastReceiver = object : BroadcastReceiver() {
         override fun onReceive(context: Context, intent: Intent) {
-            connectionStateListener.updateConnectionCheckQuery(1)
+            connectionStateListener.onNetworkChanged()
         }
     }
     private const val ACTION = "check_network"
@@ -114,7 +114,7 @@ object Connection {
 
     val isConnection: Boolean
         get() {
-            connectionStateListener.updateConnectionCheckQuery(0)
+            connectionStateListener.checkConnectionIfNeeded()
             return connectionStateListener.isConnected
         }
     val isWiFi: Boolean
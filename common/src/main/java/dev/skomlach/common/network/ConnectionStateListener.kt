@@ -28,14 +28,34 @@ import android.net.Network
 import android.net.NetworkRequest
 import android.net.wifi.WifiManager
 import android.os.Build
+import android.os.SystemClock
 import dev.skomlach.common.contextprovider.AndroidContext
 import dev.skomlach.common.logging.LogCat
 import dev.skomlach.common.misc.BroadcastTools
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.abs
 
 class ConnectionStateListener {
+    companion object {
+        private val VERDICT_TTL = TimeUnit.MINUTES.toMillis(5)
+
+        //All hosts failed with network errors; a background re-check is already scheduled
+        internal val OFFLINE_VERDICT_TTL = TimeUnit.SECONDS.toMillis(30)
+    }
 
     private val isConnectionOk = AtomicBoolean(false)
+
+    //Incremented on every network change; the ping verdict is valid only for the same generation
+    private val generation = AtomicInteger(0)
+    private val verdictGeneration = AtomicInteger(-1)
+    private val verdictTimestamp = AtomicLong(0)
+    private val verdictTtl = AtomicLong(VERDICT_TTL)
+
+    //Generation the reachability check is running for, -1 if none
+    private val checkGeneration = AtomicInteger(-1)
     private val ping: Ping = Ping(this)
     private var connectivityManager: ConnectivityManager? = null
     private var networkCallback: NetworkCallback? = null
@@ -51,15 +71,15 @@ class ConnectionStateListener {
             networkCallback = object : NetworkCallback() {
 
                 override fun onUnavailable() {
-                    ping.updateConnectionCheckQuery(1)
+                    onNetworkChanged()
                 }
 
                 override fun onAvailable(network: Network) {
-                    ping.updateConnectionCheckQuery(1)
+                    onNetworkChanged()
                 }
 
                 override fun onLost(network: Network) {
-                    ping.updateConnectionCheckQuery(1)
+                    onNetworkChanged()
                 }
             }
         }
@@ -67,7 +87,7 @@ class ConnectionStateListener {
         //pre-Lollipop devices
         receiverTypeConnection = object : BroadcastReceiver() {
             override fun onReceive(ctx: Context, intent: Intent) {
-                ping.updateConnectionCheckQuery(1)
+                onNetworkChanged()
             }
         }
         ping.updateConnectionCheckQuery(0)
@@ -135,6 +155,46 @@ class ConnectionStateListener {
         ping.updateConnectionCheckQuery(delaySeconds)
     }
 
+    val networkGeneration: Int
+        get() = generation.get()
+
+    fun onNetworkChanged() {
+        generation.incrementAndGet()
+        ping.updateConnectionCheckQuery(1)
+    }
+
+    /**
+     * Start the reachability check only if there is no verdict for the current network
+     * and no check for it is running
+     */
+    fun checkConnectionIfNeeded() {
+        val current = generation.get()
+        if (checkGeneration.get() == current)
+            return
+        if (verdictGeneration.get() == current &&
+            abs(SystemClock.elapsedRealtime() - verdictTimestamp.get()) < verdictTtl.get()
+        )
+            return
+        ping.updateConnectionCheckQuery(0)
+    }
+
+    /**
+     * @return false if the check for [networkGeneration] is already running
+     */
+    internal fun startCheck(networkGeneration: Int): Boolean =
+        checkGeneration.getAndSet(networkGeneration) != networkGeneration
+
+    internal fun setVerdict(networkGeneration: Int, newState: Boolean, ttl: Long = VERDICT_TTL) {
+        checkGeneration.compareAndSet(networkGeneration, -1)
+        //A late answer for the previous network must not override the current one
+        if (networkGeneration != generation.get())
+            return
+        verdictTtl.set(ttl)
+        verdictTimestamp.set(SystemClock.elapsedRealtime())
+        verdictGeneration.set(networkGeneration)
+        setState(newState)
+    }
+
     val isConnected: Boolean
         get() = isConnectionOk.get()
 }
\ No newline at end of file
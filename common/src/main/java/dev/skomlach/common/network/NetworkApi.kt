@@ -21,6 +21,11 @@ package dev.skomlach.common.network
 
 import android.net.TrafficStats
 import dev.skomlach.common.contextprovider.AndroidContext
+import dev.skomlach.common.logging.LogCat
+import dev.skomlach.common.storage.SharedPreferenceProvider
+import dev.skomlach.common.translate.LocalizationHelper
+import java.io.File
+import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
@@ -31,10 +36,16 @@ import java.nio.ByteBuffer
 import java.nio.channels.Channels
 import java.nio.channels.ReadableByteChannel
 import java.nio.channels.WritableByteChannel
+import java.security.SecureRandom
 import java.util.Locale
+import java.util.concurrent.TimeUnit
 import javax.net.ssl.HttpsURLConnection
 
 object NetworkApi {
+    private const val DOWNLOADS_PREF_NAME = "BiometricCompat_Downloads"
+    private const val MAX_REDIRECTS = 5
+    private const val HTTP_RANGE_NOT_SATISFIABLE = 416
+
     fun isWebUrl(u: String): Boolean {
         var url = u
         if (url.isEmpty()) return false
@@ -91,6 +102,101 @@ object NetworkApi {
         }
     }
 
+    /**
+     * Conditional (ETag/Last-Modified) download streamed into [target] via temp file + rename.
+     * Interrupted downloads are resumed with Range requests on the next call.
+     *
+     * @return true if [target] was updated, false if the remote file was not modified
+     */
+    @Throws(Exception::class)
+    fun download(link: String, target: File): Boolean {
+        val preferences = SharedPreferenceProvider.getPreferences(DOWNLOADS_PREF_NAME)
+        val tmp = File(target.parentFile, target.name + ".part")
+        var url = link
+        for (attempt in 0..MAX_REDIRECTS) {
+            val partialEtag = preferences.getString("$link-partEtag", null)
+            if (partialEtag == null)
+                tmp.delete()
+            val partial = if (tmp.exists()) tmp.length() else 0L
+            val urlConnection = createConnection(url, TimeUnit.SECONDS.toMillis(30).toInt())
+            try {
+                urlConnection.requestMethod = "GET"
+                urlConnection.setRequestProperty(
+                    "User-Agent",
+                    LocalizationHelper.agents[SecureRandom().nextInt(LocalizationHelper.agents.size)]
+                )
+                if (target.exists()) {
+                    preferences.getString("$link-etag", null)?.let {
+                        urlConnection.setRequestProperty("If-None-Match", it)
+                    }
+                    preferences.getString("$link-lastModified", null)?.let {
+                        urlConnection.setRequestProperty("If-Modified-Since", it)
+                    }
+                }
+                if (partial > 0 && partialEtag != null) {
+                    urlConnection.setRequestProperty("Range", "bytes=$partial-")
+                    urlConnection.setRequestProperty("If-Range", partialEtag)
+                }
+                urlConnection.connect()
+                val responseCode = urlConnection.responseCode
+                LogCat.log("NetworkApi.download: $url - $responseCode")
+                when {
+                    responseCode == HttpURLConnection.HTTP_NOT_MODIFIED -> return false
+                    responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_PARTIAL -> {
+                        val append = responseCode == HttpURLConnection.HTTP_PARTIAL &&
+                                urlConnection.getHeaderField("Content-Range")
+                                    ?.startsWith("bytes $partial-") == true
+                        val etag = urlConnection.getHeaderField("ETag")
+                        if (!append) {
+                            tmp.delete()
+                            preferences.edit().putString("$link-partEtag", etag).apply()
+                        }
+                        val expected = urlConnection.getHeaderField("Content-Length")?.toLongOrNull()
+                            ?.let { it + if (append) partial else 0L }
+                        target.parentFile?.mkdirs()
+                        //Closed on failure too: an interrupted download is exactly what resume is for
+                        urlConnection.inputStream.use { input ->
+                            FileOutputStream(tmp, append).use { output ->
+                                fastCopy(Channels.newChannel(input), output.channel)
+                            }
+                        }
+                        if (expected != null && tmp.length() != expected)
+                            throw IOException("Truncated download of $url: ${tmp.length()}/$expected")
+                        if (!tmp.renameTo(target))
+                            throw IOException("Unable to replace $target")
+                        preferences.edit()
+                            .putString("$link-etag", etag)
+                            .putString("$link-lastModified", urlConnection.getHeaderField("Last-Modified"))
+                            .remove("$link-partEtag")
+                            .apply()
+                        return true
+                    }
+
+                    responseCode == HTTP_RANGE_NOT_SATISFIABLE -> {
+                        //stale partial file - start from scratch
+                        tmp.delete()
+                        preferences.edit().remove("$link-partEtag").apply()
+                    }
+
+                    responseCode >= HttpURLConnection.HTTP_MULT_CHOICE && responseCode < HttpURLConnection.HTTP_BAD_REQUEST -> {
+                        //Redirect between protocols is not followed automatically
+                        var location = urlConnection.getHeaderField("Location")
+                            ?: throw IOException("Redirect without location: $url")
+                        if (!isWebUrl(location)) {
+                            location = "https://$location"
+                        }
+                        url = location
+                    }
+
+                    else -> throw IOException("Unexpected response $responseCode for $url")
+                }
+            } finally {
+                urlConnection.disconnect()
+            }
+        }
+        throw IOException("Too many attempts for $link")
+    }
+
     fun resolveUrl(baseUrl: String?, relativeUrl: String): String {
         try {
             return URI(baseUrl).resolve(relativeUrl).toString()
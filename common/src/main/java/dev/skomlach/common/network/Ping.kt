@@ -22,7 +22,6 @@ import androidx.annotation.WorkerThread
 import dev.skomlach.common.logging.LogCat
 import dev.skomlach.common.misc.ExecutorHelper
 import dev.skomlach.common.translate.LocalizationHelper
-import java.io.ByteArrayOutputStream
 import java.io.IOException
 import java.io.InputStream
 import java.net.HttpURLConnection
@@ -30,10 +29,25 @@ import java.net.URI
 import java.net.URL
 import java.security.SecureRandom
 import java.util.*
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.regex.Pattern
 
 internal class Ping(private val connectionStateListener: ConnectionStateListener) {
+    companion object {
+        private const val STAGGER_MS = 200L
+        private const val MAX_PREFIX_BYTES = 64 * 1024
+        private const val READ_CHUNK = 4 * 1024
+        private val HEAD_END = "</head>".toByteArray()
+    }
+
+    /**
+     * @param complete false if the read stopped at [MAX_PREFIX_BYTES] before `</head>`
+     */
+    private class Head(val html: String, val complete: Boolean)
+
     private val patternMeta =
         Pattern.compile("<meta(.*?)>") //compile RegEx to extract all <meta/> tags
     private val patternLink =
@@ -82,94 +96,183 @@ internal class Ping(private val connectionStateListener: ConnectionStateListener
     @WorkerThread
     private fun startPing() {
 
+        val generation = connectionStateListener.networkGeneration
+        //One race per network; it ends with setVerdict()
+        if (!connectionStateListener.startCheck(generation))
+            return
         if (!connectionStateListener.isConnectionDetected()) {
-            connectionStateListener.setState(false)
+            connectionStateListener.setVerdict(generation, false)
             return
         }
-        for (host in PingConfig.hostsList) {
-            var urlConnection: HttpURLConnection? = null
-            try {
-                val uri = URI("https://$host")
-                urlConnection = NetworkApi.createConnection(
-                    uri.toString(),
-                    TimeUnit.SECONDS.toMillis(PingConfig.pingTimeoutSec).toInt()
-                )
-                urlConnection.instanceFollowRedirects = true
-                urlConnection.requestMethod = "GET"
-                urlConnection.setRequestProperty(
-                    "User-Agent", LocalizationHelper.agents[SecureRandom().nextInt(
-                        LocalizationHelper.agents.size
-                    )]
-                )
-                urlConnection.connect()
-                val responseCode = urlConnection.responseCode
-                val byteArrayOutputStream = ByteArrayOutputStream()
-                var inputStream: InputStream
-                LogCat.log("ping: $responseCode=${urlConnection.responseMessage}")
-                //if any 2XX response code
-                if (responseCode >= HttpURLConnection.HTTP_OK && responseCode < HttpURLConnection.HTTP_MULT_CHOICE) {
-                    inputStream = urlConnection.inputStream
-                } else {
-                    //Redirect happen
-                    if (responseCode >= HttpURLConnection.HTTP_MULT_CHOICE && responseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
-                        var target = urlConnection.getHeaderField("Location")
-                        if (target != null && !isWebUrl(target)) {
-                            target = "https://$target"
-                        }
-                        //Some providers show "dummy" page, lets compare with target URL
-                        if (target != null && !matchesUrl(uri.toString(), target)) {
-                            throw IOException("Unable to connect to $host")
-                        }
+        val hosts = PingConfig.hostsList.toList()
+        if (hosts.isEmpty()) {
+            connectionStateListener.setVerdict(generation, true)
+            return
+        }
+        //Hosts are raced; the first decisive answer wins and the rest are cancelled
+        val race = Race(generation, hosts.size)
+        hosts.forEachIndexed { i, host ->
+            val task = Runnable { probe(race, host) }
+            if (i == 0)
+                ExecutorHelper.startOnBackground(task)
+            else
+                ExecutorHelper.startOnBackground(task, i * STAGGER_MS)
+        }
+    }
+
+    private fun probe(race: Race, host: String) {
+        if (race.decided.get())
+            return
+        var urlConnection: HttpURLConnection? = null
+        try {
+            val uri = URI("https://$host")
+            urlConnection = NetworkApi.createConnection(
+                uri.toString(),
+                TimeUnit.SECONDS.toMillis(PingConfig.pingTimeoutSec).toInt()
+            )
+            race.connections.add(urlConnection)
+            urlConnection.instanceFollowRedirects = true
+            urlConnection.requestMethod = "GET"
+            urlConnection.setRequestProperty(
+                "User-Agent", LocalizationHelper.agents[SecureRandom().nextInt(
+                    LocalizationHelper.agents.size
+                )]
+            )
+            urlConnection.connect()
+            val responseCode = urlConnection.responseCode
+            val inputStream: InputStream
+            LogCat.log("ping: $host $responseCode=${urlConnection.responseMessage}")
+            //if any 2XX response code
+            if (responseCode >= HttpURLConnection.HTTP_OK && responseCode < HttpURLConnection.HTTP_MULT_CHOICE) {
+                inputStream = urlConnection.inputStream
+            } else {
+                //Redirect happen
+                if (responseCode >= HttpURLConnection.HTTP_MULT_CHOICE && responseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
+                    var target = urlConnection.getHeaderField("Location")
+                    if (target != null && !isWebUrl(target)) {
+                        target = "https://$target"
+                    }
+                    //Some providers show "dummy" page, lets compare with target URL
+                    if (target != null && !matchesUrl(uri.toString(), target)) {
+                        throw IOException("Unable to connect to $host")
                     }
-                    inputStream = urlConnection.inputStream ?: urlConnection.errorStream
-                }
-                NetworkApi.fastCopy(inputStream, byteArrayOutputStream)
-                inputStream.close()
-                val data = byteArrayOutputStream.toByteArray()
-                byteArrayOutputStream.close()
-                urlConnection.disconnect()
-                val html = String(data).ifEmpty {
-                    throw IOException("Unable to read data from stream")
                 }
-                if (!verifyHTML(uri.toString(), html)) {
-                    throw IllegalStateException("HTML data do not matched with $host")
+                inputStream = urlConnection.inputStream ?: urlConnection.errorStream
+            }
+            val head = inputStream.use { readHead(it) }
+            if (head.html.isEmpty())
+                throw IOException("Unable to read data from stream")
+            if (!verifyHTML(uri.toString(), head.html)) {
+                //The cut-off part of a huge <head> may hold the link we look for - not a verdict
+                if (!head.complete)
+                    throw IOException("<head> of $host exceeds $MAX_PREFIX_BYTES bytes")
+                throw IllegalStateException("HTML data do not matched with $host")
+            }
+            race.decide(true)
+        } catch (e: IllegalStateException) {
+            LogCat.logException(e, "Ping")
+            race.decide(false)
+        } catch (e: Throwable) {
+            if (race.decided.get())
+                return //cancelled
+            //UnknownHostException
+            //SocketTimeoutException
+            if (e.javaClass.name.startsWith("java.net."))
+                race.networkError.set(true)
+            LogCat.logException(e, "Ping")
+        } finally {
+            if (urlConnection != null) {
+                race.connections.remove(urlConnection)
+                try {
+                    urlConnection.disconnect()
+                } catch (ignore: Throwable) {
                 }
-                connectionStateListener.setState(true)
+            }
+            race.finish()
+        }
+    }
+
+    //Only <head> is verified, so there is no need to download the whole page
+    private fun readHead(inputStream: InputStream): Head {
+        val data = ByteArray(MAX_PREFIX_BYTES)
+        var size = 0
+        while (size < data.size) {
+            val read = inputStream.read(data, size, READ_CHUNK.coerceAtMost(data.size - size))
+            if (read == -1)
+                return Head(String(data, 0, size), true)
+            //Only the new bytes are scanned, plus an overlap for a tag split between reads
+            val from = (size - HEAD_END.size + 1).coerceAtLeast(0)
+            size += read
+            if (indexOfHeadEnd(data, from, size) != -1)
+                return Head(String(data, 0, size), true)
+        }
+        return Head(String(data, 0, size), false)
+    }
+
+    //Case-insensitive search of `</head>` in data[from, to)
+    private fun indexOfHeadEnd(data: ByteArray, from: Int, to: Int): Int {
+        var i = from
+        while (i <= to - HEAD_END.size) {
+            var j = 0
+            while (j < HEAD_END.size) {
+                val b = data[i + j].toInt()
+                val lower = if (b >= 'A'.code && b <= 'Z'.code) b + ('a' - 'A') else b
+                if (lower != HEAD_END[j].toInt())
+                    break
+                j++
+            }
+            if (j == HEAD_END.size)
+                return i
+            i++
+        }
+        return -1
+    }
+
+    private inner class Race(private val generation: Int, hosts: Int) {
+        val decided = AtomicBoolean(false)
+        val networkError = AtomicBoolean(false)
+        val connections: MutableList<HttpURLConnection> = CopyOnWriteArrayList()
+        private val pending = AtomicInteger(hosts)
+
+        fun decide(state: Boolean) {
+            if (!decided.compareAndSet(false, true))
                 return
-            } catch (e: IllegalStateException) {
-                LogCat.logException(e, "Ping")
-                connectionStateListener.setState(false)
+            for (connection in connections) {
+                try {
+                    connection.disconnect()
+                } catch (ignore: Throwable) {
+                }
+            }
+            connectionStateListener.setVerdict(generation, state)
+        }
+
+        fun finish() {
+            if (pending.decrementAndGet() > 0 || !decided.compareAndSet(false, true))
                 return
-            } catch (e: Throwable) {
-                //UnknownHostException
-                //SocketTimeoutException
-                if (e.javaClass.name.startsWith("java.net.")) {
-                    LogCat.logException(e, "Ping")
+            if (networkError.get()) {
+                //Answer the callers at once and re-check in the background
+                connectionStateListener.setVerdict(
+                    generation,
+                    false,
+                    ConnectionStateListener.OFFLINE_VERDICT_TTL
+                )
+                if (generation == connectionStateListener.networkGeneration)
                     updateConnectionCheckQuery(PingConfig.pingTimeoutSec)
-                    return
-                }
-                LogCat.logException(e, "Ping")
-                //retry
-            } finally {
-                if (urlConnection != null) {
-                    try {
-                        urlConnection.disconnect()
-                        urlConnection = null
-                    } catch (ignore: Throwable) {
-                    }
-                }
+                return
             }
+            //fallback to the current newtork state; Can be false positive
+            connectionStateListener.setVerdict(generation, connectionStateListener.isConnectionDetected())
         }
-        //fallback to the current newtork state; Can be false positive
-        connectionStateListener.setState(connectionStateListener.isConnectionDetected())
     }
 
     @Throws(Exception::class)
     private fun verifyHTML(originalUrl: String, s: String): Boolean {
         var html = s
-        val start = html.lowercase(Locale.ROOT).indexOf("<head>")
-        val end = html.lowercase(Locale.ROOT).indexOf("</head>")
-        if (start != -1 && end != -1) {
+        val lowercase = html.lowercase(Locale.ROOT)
+        val start = lowercase.indexOf("<head>")
+        //A capped read has no `</head>` - verify the prefix we have
+        val end = lowercase.indexOf("</head>").let { if (it == -1) html.length else it }
+        if (start != -1 && start + "<head>".length <= end) {
             html = html.substring(start + "<head>".length, end)
             //verify URL in HTML body
             var m = patternLink.matcher(html)
@@ -0,0 +1,116 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.permissions
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import dev.skomlach.common.contextprovider.AndroidContext
+import dev.skomlach.common.logging.LogCat
+import dev.skomlach.common.misc.BroadcastTools
+import dev.skomlach.common.misc.ExecutorHelper
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Process-wide set of the permissions declared in the system.
+ *
+ * Built with one pass over the permission groups and rebuilt after package changes,
+ * since apps may declare their own permissions.
+ */
+internal object PermissionCatalog {
+    private val listenerRegistered = AtomicBoolean(false)
+    private val generation = AtomicInteger(0)
+
+    @Volatile
+    private var permissions: Set<String>? = null
+
+    fun prefetch() {
+        if (permissions == null)
+            ExecutorHelper.startOnBackground {
+                get()
+            }
+    }
+
+    fun contains(permission: String): Boolean = get().contains(permission)
+
+    fun get(): Set<String> {
+        permissions?.let {
+            return it
+        }
+        registerListener()
+        synchronized(this) {
+            permissions?.let {
+                return it
+            }
+            val gen = generation.get()
+            val set = build() ?: return emptySet()
+            //Skip the store if packages changed while the set was built
+            if (gen == generation.get())
+                permissions = set
+            return set
+        }
+    }
+
+    private fun build(): Set<String>? {
+        try {
+            val packageManager = AndroidContext.appContext.packageManager
+            val set = HashSet<String>()
+            for (pgi in packageManager.getAllPermissionGroups(0)) {
+                pgi?.name?.let {
+                    for (pi in packageManager.queryPermissionsByGroup(it, 0)) {
+                        set.add(pi.name)
+                    }
+                }
+            }
+            return set
+        } catch (e: Throwable) {
+            LogCat.logException(e)
+        }
+        return null
+    }
+
+    private fun registerListener() {
+        if (!listenerRegistered.compareAndSet(false, true))
+            return
+        try {
+            val filter = IntentFilter()
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED)
+            filter.addAction(Intent.ACTION_PACKAGE_CHANGED)
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED)
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED)
+            filter.addDataScheme("package")
+            BroadcastTools.registerGlobalBroadcastIntent(
+                AndroidContext.appContext,
+                object : BroadcastReceiver() {
+                    override fun onReceive(context: Context, intent: Intent) {
+                        generation.incrementAndGet()
+                        permissions = null
+                        prefetch()
+                    }
+                },
+                filter
+            )
+        } catch (e: Throwable) {
+            LogCat.logException(e)
+        }
+    }
+}
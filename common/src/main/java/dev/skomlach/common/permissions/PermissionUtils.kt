@@ -24,7 +24,6 @@ import android.app.AppOpsManager
 import android.app.NotificationManager
 import android.content.Context
 import android.content.pm.PackageManager
-import android.content.pm.PermissionGroupInfo
 import android.content.pm.PermissionInfo
 import android.os.Build
 import android.os.Build.VERSION
@@ -52,6 +51,10 @@ class PermissionUtils internal constructor() {
 
     }
 
+    init {
+        PermissionCatalog.prefetch()
+    }
+
     /**
      * Checks all given permissions have been granted.
      *
@@ -117,24 +120,17 @@ class PermissionUtils internal constructor() {
     }
 
     private fun isPermissionExistsInTheSystem(permission: String): Boolean {
-        try {
-            val lstGroups = AndroidContext.appContext.packageManager.getAllPermissionGroups(0)
-            lstGroups.add(null) // ungrouped permissions
-            for (pgi: PermissionGroupInfo? in lstGroups) {
-                pgi?.name?.let {
-                    val lstPermissions =
-                        AndroidContext.appContext.packageManager.queryPermissionsByGroup(it, 0)
-                    for (pi: PermissionInfo in lstPermissions) {
-                        if ((pi.name == permission)) {
-                            return true
-                        }
-                    }
-                }
-            }
-        } catch (ex: Throwable) {
-            logException(ex)
+        return PermissionCatalog.contains(permission)
+    }
+
+    /**
+     * Returns true if all given permissions are declared in the system.
+     */
+    fun existAll(permissions: Collection<String>): Boolean {
+        val catalog = PermissionCatalog.get()
+        return permissions.all {
+            catalog.contains(it)
         }
-        return false
     }
 
     /**
@@ -20,23 +20,153 @@
 package dev.skomlach.common.protection
 
 import android.accessibilityservice.AccessibilityServiceInfo
+import android.content.BroadcastReceiver
 import android.content.ComponentName
 import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.SharedPreferences
 import android.content.pm.PackageManager
 import android.content.res.Resources
 import android.content.res.XmlResourceParser
+import android.database.ContentObserver
 import android.provider.Settings
 import android.text.TextUtils
 import android.view.accessibility.AccessibilityManager
+import androidx.core.content.pm.PackageInfoCompat
 import dev.skomlach.common.logging.LogCat
+import dev.skomlach.common.misc.BroadcastTools
+import dev.skomlach.common.misc.ExecutorHelper
+import dev.skomlach.common.storage.SharedPreferenceProvider
 import org.xmlpull.v1.XmlPullParser
 import org.xmlpull.v1.XmlPullParserException
 import org.xmlpull.v1.XmlPullParserFactory
 import java.io.IOException
 import java.io.StringReader
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
 object A11yDetection {
     private val talkBackPackages = listOf( "com.google.android.marvin.talkback", "com.android.talkback")
+
+    //component -> "versionCode|lastUpdateTime|verdict", survives restarts
+    private val preferences: SharedPreferences =
+        SharedPreferenceProvider.getPreferences("BiometricCompat_A11yDetection")
+
+    //components already verified in this process; dropped on package replace/remove
+    private val verdicts = ConcurrentHashMap<String, Boolean>()
+    private val listenersRegistered = AtomicBoolean(false)
+
+    //verdict for the current enabled services; dropped when the settings change
+    @Volatile
+    private var trustVerdict: Boolean? = null
+
+    //Incremented on every invalidation; a verdict computed across an invalidation is not stored
+    private val trustGeneration = AtomicInteger(0)
+
+    private enum class Verdict(val trusted: Boolean, val determined: Boolean) {
+        TRUSTED(true, true),
+        UNTRUSTED(false, true),
+
+        //fallbacks after a failure (e.g. right after the service was enabled) - never cached
+        ASSUME_TRUSTED(true, false),
+        ASSUME_UNTRUSTED(false, false);
+
+        companion object {
+            fun of(trusted: Boolean) = if (trusted) TRUSTED else UNTRUSTED
+        }
+    }
+
+    private fun dropTrustVerdict() {
+        trustGeneration.incrementAndGet()
+        trustVerdict = null
+    }
+
+    private fun registerInvalidationListeners(cnt: Context): Boolean {
+        if (!listenersRegistered.compareAndSet(false, true))
+            return true
+        try {
+            val context = cnt.applicationContext ?: cnt
+            val filter = IntentFilter()
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED)
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED)
+            filter.addDataScheme("package")
+            BroadcastTools.registerGlobalBroadcastIntent(context, object : BroadcastReceiver() {
+                override fun onReceive(context: Context, intent: Intent) {
+                    val packageName = intent.data?.schemeSpecificPart ?: return
+                    invalidate(packageName)
+                }
+            }, filter)
+            val observer = object : ContentObserver(ExecutorHelper.handler) {
+                override fun onChange(selfChange: Boolean) {
+                    dropTrustVerdict()
+                }
+            }
+            context.contentResolver.registerContentObserver(
+                Settings.Secure.getUriFor(Settings.Secure.ENABLED_ACCESSIBILITY_SERVICES),
+                false,
+                observer
+            )
+            context.contentResolver.registerContentObserver(
+                Settings.Secure.getUriFor(Settings.Secure.ACCESSIBILITY_ENABLED),
+                false,
+                observer
+            )
+            return true
+        } catch (e: Throwable) {
+            listenersRegistered.set(false)
+            LogCat.logError(
+                "A11yDetection",
+                e.message, e
+            )
+        }
+        return false
+    }
+
+    private fun invalidate(packageName: String) {
+        dropTrustVerdict()
+        val prefix = "$packageName/"
+        verdicts.keys.removeAll { it.startsWith(prefix) }
+        val editor = preferences.edit()
+        preferences.all.keys.filter { it.startsWith(prefix) }.forEach { editor.remove(it) }
+        editor.apply()
+    }
+
+    private fun isTrusted(cnt: Context, componentName: ComponentName): Verdict {
+        val key = componentName.flattenToString()
+        verdicts[key]?.let {
+            return Verdict.of(it)
+        }
+        var version: String? = null
+        try {
+            val pi = cnt.packageManager.getPackageInfo(componentName.packageName, 0)
+            version = "${PackageInfoCompat.getLongVersionCode(pi)}|${pi.lastUpdateTime}"
+            preferences.getString(key, null)?.let {
+                if (it.substringBeforeLast("|") == version) {
+                    val verdict = it.substringAfterLast("|").toBoolean()
+                    verdicts[key] = verdict
+                    return Verdict.of(verdict)
+                }
+            }
+        } catch (e: Throwable) {
+            LogCat.log(
+                "A11yDetection",
+                e.message
+            )
+        }
+        val verdict = if (!InstallerID.verifyInstallerId(cnt, componentName.packageName))
+            Verdict.UNTRUSTED
+        else
+            isAccessibilityTool(cnt, componentName)
+        //Only determined verdicts are remembered - a failure should be retried next time
+        if (version != null && verdict.determined) {
+            verdicts[key] = verdict.trusted
+            preferences.edit().putString(key, "$version|${verdict.trusted}").apply()
+        }
+        return verdict
+    }
+
     fun hasWhiteListedService(cnt: Context) : Boolean{
         try {
             val accessibilityEnabled =
@@ -83,6 +213,15 @@ object A11yDetection {
     }
     //isAccessibilityTool
     fun shouldWeTrustA11y(cnt: Context): Boolean {
+        val canCache = registerInvalidationListeners(cnt)
+        trustVerdict?.let {
+            return it
+        }
+        val generation = trustGeneration.get()
+        fun store(verdict: Boolean) {
+            if (canCache && generation == trustGeneration.get())
+                trustVerdict = verdict
+        }
         try {
             val accessibilityEnabled =
                 Settings.Secure.getInt(cnt.contentResolver, Settings.Secure.ACCESSIBILITY_ENABLED)
@@ -104,13 +243,15 @@ object A11yDetection {
                     list
                 )
 
-                return list.filterNotNull().none {
-                    !(InstallerID.verifyInstallerId(cnt, it.packageName) && isAccessibilityTool(
-                        cnt,
-                        it
-                    ))
+                val results = list.filterNotNull().map {
+                    isTrusted(cnt, it)
+                }
+                return results.all { it.trusted }.also {
+                    if (results.all { v -> v.determined })
+                        store(it)
                 }
             }
+            store(true)
         } catch (e: Throwable) {
             LogCat.logError(
                 "A11yDetection",
@@ -120,7 +261,7 @@ object A11yDetection {
         return true
     }
 
-    private fun isAccessibilityTool(context: Context, componentName: ComponentName): Boolean {
+    private fun isAccessibilityTool(context: Context, componentName: ComponentName): Verdict {
         try {
             val am = context.getSystemService(Context.ACCESSIBILITY_SERVICE) as AccessibilityManager
             val list =
@@ -128,10 +269,12 @@ object A11yDetection {
 
             list.forEach {
                 if ("${it.resolveInfo.serviceInfo.packageName}/${it.resolveInfo.serviceInfo.name}" == componentName.flattenToString()) {
-                    return AccessibilityServiceInfo::class.java.getDeclaredMethod("isAccessibilityTool")
+                    return Verdict.of(
+                        AccessibilityServiceInfo::class.java.getDeclaredMethod("isAccessibilityTool")
                             .apply {
                                 this.isAccessible = true
                             }.invoke(it) as Boolean
+                    )
                 }
             }
         } catch (e: Throwable) {
@@ -162,18 +305,18 @@ object A11yDetection {
                 "A11yDetection",
                 e.message
             )
-            return true
+            return Verdict.ASSUME_TRUSTED
         } catch (e: Throwable) {
             LogCat.logError(
                 "A11yDetection",
                 e.message, e
             )
         }
-        return false
+        return Verdict.ASSUME_UNTRUSTED
     }
 
     private class AssetsChecker(val resources: Resources) {
-        fun isAccessibilityTool(res: Int): Boolean {
+        fun isAccessibilityTool(res: Int): Verdict {
             try {
                 val xml = resources.getXml(res)
                 val factory = XmlPullParserFactory.newInstance()
@@ -200,7 +343,7 @@ object A11yDetection {
                                         "isAccessibilityTool", ignoreCase = true
                                     )
                                 ) {
-                                    return xpp.getAttributeValue(i) == "true"
+                                    return Verdict.of(xpp.getAttributeValue(i) == "true")
                                 }
                                 i++
                             }
@@ -211,13 +354,15 @@ object A11yDetection {
                     }
                     xpp.next()
                 }
+                //parsed completely, the attribute is not declared
+                return Verdict.UNTRUSTED
             } catch (e: Throwable) {
                 LogCat.logError(
                     "A11yDetection",
                     e.message, e
                 )
             }
-            return false
+            return Verdict.ASSUME_UNTRUSTED
         }
 
         private fun insertSpaces(sb: StringBuilder?, num: Int) {
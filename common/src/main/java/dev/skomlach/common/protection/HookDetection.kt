@@ -20,23 +20,41 @@
 package dev.skomlach.common.protection
 
 import dev.skomlach.common.logging.LogCat
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.launch
-import java.io.BufferedReader
-import java.io.FileReader
 
 
 object HookDetection {
+    private val signatures = listOf(
+        "re.frida.server" to "Frida object found",
+        "libfrida-gadget" to "Frida object found",
+        "com.saurik.substrate" to "Substrate shared object found",
+        "XposedBridge.jar" to "Xposed JAR found"
+    )
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val scanner by lazy {
+        MapsScanner(signatures.map { it.first })
+    }
     private var job: Job? = null
 
+    //Hooks can't be unloaded, so a positive verdict is final;
+    //a negative one is rechecked only against libraries mapped since the previous scan
+    @Volatile
+    private var detected = false
 
     fun detect(listener: HookDetectionListener) {
+        if (detected) {
+            listener.onDetected(true)
+            return
+        }
         if (job?.isActive == true) return
-        job = GlobalScope.launch(Dispatchers.IO) {
+        job = scope.launch {
             try {
                 if (hooksDetection()) {
+                    detected = true
                     listener.onDetected(true)
                     return@launch
                 }
@@ -51,91 +69,18 @@ object HookDetection {
     }
 
     private fun hooksDetection(): Boolean {
-        return checkMethodsHooking() || checkMapping() || checkSelfMapping()
+        return checkMethodsHooking() || checkMapping()
     }
 
+    //"/proc/self/maps" is the same file for the current process, so only one pass is needed
     private fun checkMapping(): Boolean {
         try {
-            val libraries: MutableSet<String> = mutableSetOf()
-            val mapsFilename = "/proc/" + android.os.Process.myPid() + "/maps"
-            val reader = BufferedReader(FileReader(mapsFilename))
-            var line: String = ""
-            while (reader.readLine()?.also { line = it } != null) {
-                if (line.endsWith(".so") || line.endsWith(".jar")) {
-                    val n = line.lastIndexOf(" ")
-                    libraries.add(line.substring(n + 1))
-                }
-            }
-            for (library in libraries) {
-                if (library.contains("re.frida.server") || library.contains("libfrida-gadget")) {
-                    LogCat.logError(
-                        "HookDetection",
-                        "Frida object found: $library"
-                    )
-                    return true
-                }
-                if (library.contains("com.saurik.substrate")) {
-                    LogCat.logError(
-                        "HookDetection",
-                        "Substrate shared object found: $library"
-                    )
-                    return true
-                }
-                if (library.contains("XposedBridge.jar")) {
-                    LogCat.logError(
-                        "HookDetection",
-                        "Xposed JAR found: $library"
-                    )
-                    return true
-                }
-            }
-            reader.close()
-        } catch (e: java.lang.Exception) {
+            val match = scanner.scan("/proc/" + android.os.Process.myPid() + "/maps") ?: return false
             LogCat.logError(
                 "HookDetection",
-                e
+                "${signatures[match.signature].second}: ${match.path}"
             )
-        }
-
-        return false
-    }
-
-    private fun checkSelfMapping(): Boolean {
-        try {
-            val libraries: MutableSet<String> = mutableSetOf()
-            val mapsFilename = "/proc/self/maps"
-            val reader = BufferedReader(FileReader(mapsFilename))
-            var line: String = ""
-            while (reader.readLine()?.also { line = it } != null) {
-                if (line.endsWith(".so") || line.endsWith(".jar")) {
-                    val n = line.lastIndexOf(" ")
-                    libraries.add(line.substring(n + 1))
-                }
-            }
-            for (library in libraries) {
-                if (library.contains("re.frida.server") || library.contains("libfrida-gadget")) {
-                    LogCat.logError(
-                        "HookDetection",
-                        "Frida object found: $library"
-                    )
-                    return true
-                }
-                if (library.contains("com.saurik.substrate")) {
-                    LogCat.logError(
-                        "HookDetection",
-                        "Substrate shared object found: $library"
-                    )
-                    return true
-                }
-                if (library.contains("XposedBridge.jar")) {
-                    LogCat.logError(
-                        "HookDetection",
-                        "Xposed JAR found: $library"
-                    )
-                    return true
-                }
-            }
-            reader.close()
+            return true
         } catch (e: java.lang.Exception) {
             LogCat.logError(
                 "HookDetection",
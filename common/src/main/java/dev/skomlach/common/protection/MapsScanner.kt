@@ -0,0 +1,145 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.protection
+
+import java.io.FileInputStream
+
+/**
+ * Single-pass scanner for `/proc/<pid>/maps`.
+ *
+ * Reads the file through one reused buffer without building line strings. Paths of mapped
+ * `.so`/`.jar` files are deduplicated by hash across scans, so each library is matched against
+ * the signatures (Aho-Corasick automaton) only once per process.
+ */
+internal class MapsScanner(signatures: List<String>) {
+    companion object {
+        private const val PATH_MAX = 4096
+        private const val FNV_OFFSET = -0x340d631b7bdddcdbL
+        private const val FNV_PRIME = 0x100000001b3L
+        private const val SO = 0x2E736F //".so"
+        private const val JAR = 0x2E6A6172 //".jar"
+    }
+
+    class Match(val signature: Int, val path: String)
+
+    private val delta: IntArray
+    private val output: IntArray
+    private val buffer = ByteArray(16 * 1024)
+    private val path = ByteArray(PATH_MAX)
+    private val known = HashSet<Long>()
+
+    init {
+        val goto = ArrayList<IntArray>()
+        val out = ArrayList<Int>()
+        goto.add(IntArray(256) { -1 })
+        out.add(-1)
+        for ((i, signature) in signatures.withIndex()) {
+            var state = 0
+            for (b in signature.toByteArray()) {
+                val c = b.toInt() and 0xff
+                if (goto[state][c] == -1) {
+                    goto.add(IntArray(256) { -1 })
+                    out.add(-1)
+                    goto[state][c] = goto.size - 1
+                }
+                state = goto[state][c]
+            }
+            out[state] = i
+        }
+        //Turn the trie into a DFA: missing transitions follow the failure links
+        val fail = IntArray(goto.size)
+        val queue = ArrayDeque<Int>()
+        for (c in 0 until 256) {
+            val s = goto[0][c]
+            if (s == -1)
+                goto[0][c] = 0
+            else
+                queue.add(s)
+        }
+        while (queue.isNotEmpty()) {
+            val r = queue.removeFirst()
+            for (c in 0 until 256) {
+                val s = goto[r][c]
+                if (s == -1) {
+                    goto[r][c] = goto[fail[r]][c]
+                } else {
+                    fail[s] = goto[fail[r]][c]
+                    if (out[s] == -1)
+                        out[s] = out[fail[s]]
+                    queue.add(s)
+                }
+            }
+        }
+        delta = IntArray(goto.size * 256)
+        for (s in goto.indices)
+            System.arraycopy(goto[s], 0, delta, s * 256, 256)
+        output = out.toIntArray()
+    }
+
+    /**
+     * @return the first not yet seen library that contains one of the signatures
+     */
+    @Synchronized
+    fun scan(file: String): Match? {
+        FileInputStream(file).use { input ->
+            //Current token: the path is the last space-separated token of the line
+            var length = 0
+            var hash = FNV_OFFSET
+            var tail = 0
+            while (true) {
+                val n = input.read(buffer)
+                if (n < 0)
+                    break
+                for (i in 0 until n) {
+                    val b = buffer[i]
+                    if (b == '\n'.code.toByte() || b == ' '.code.toByte()) {
+                        if (b == '\n'.code.toByte())
+                            check(length, hash, tail)?.let { return it }
+                        length = 0
+                        hash = FNV_OFFSET
+                        tail = 0
+                    } else {
+                        if (length < PATH_MAX)
+                            path[length] = b
+                        length++
+                        hash = (hash xor (b.toLong() and 0xff)) * FNV_PRIME
+                        tail = (tail shl 8) or (b.toInt() and 0xff)
+                    }
+                }
+            }
+            return check(length, hash, tail)
+        }
+    }
+
+    private fun check(length: Int, hash: Long, tail: Int): Match? {
+        if (tail and 0xFFFFFF != SO && tail != JAR)
+            return null
+        if (!known.add(hash))
+            return null
+        val size = minOf(length, PATH_MAX)
+        var state = 0
+        for (i in 0 until size) {
+            state = delta[state * 256 + (path[i].toInt() and 0xff)]
+            if (output[state] != -1)
+                return Match(output[state], String(path, 0, size))
+        }
+        return null
+    }
+}
@@ -21,6 +21,7 @@ package dev.skomlach.common.storage
 
 import android.content.Context
 import android.content.SharedPreferences
+import android.os.Build
 import dev.skomlach.common.contextprovider.AndroidContext
 
 object SharedPreferenceProvider {
@@ -29,6 +30,12 @@ object SharedPreferenceProvider {
         return appContext.getSharedPreferences(name, Context.MODE_PRIVATE)
     }
 
+    fun deletePreferences(name: String) {
+        getPreferences(name).edit().clear().commit()
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            appContext.deleteSharedPreferences(name)
+    }
+
     @Deprecated("Use getPreferences (aka plaintext) instead; `androidx.security` contains too many bugs:(")
     fun getCryptoPreferences(name: String): SharedPreferences {
         return getPreferences(name)
@@ -23,14 +23,15 @@ import android.content.Context
 import android.content.res.Configuration
 import android.os.Build
 import android.os.LocaleList
+import android.os.Process
 import androidx.annotation.StringRes
+import androidx.annotation.VisibleForTesting
 import dev.skomlach.common.contextprovider.AndroidContext
 import dev.skomlach.common.logging.LogCat
 import dev.skomlach.common.misc.ExecutorHelper
+import dev.skomlach.common.misc.InstrumentedExecutor
 import dev.skomlach.common.network.NetworkApi
-import dev.skomlach.common.storage.SharedPreferenceProvider
 import org.json.JSONArray
-import org.json.JSONObject
 import java.io.ByteArrayOutputStream
 import java.io.InputStream
 import java.net.HttpURLConnection
@@ -41,6 +42,24 @@ import java.util.Locale
 import java.util.concurrent.TimeUnit
 
 object LocalizationHelper {
+    private const val MAX_BATCH_LENGTH = 1000
+    private val inFlight = HashMap<String, MutableList<TranslateResult?>>()
+
+    //Own lane with bounded parallelism: translations wait up to 30s on the network
+    //and must not park the shared background workers
+    private val translationExecutor = InstrumentedExecutor(
+        "BiometricCompat-translate",
+        2,
+        Process.THREAD_PRIORITY_BACKGROUND
+    )
+
+    //Overridable for the offline checks against a local HTTP stub
+    @VisibleForTesting
+    internal var googleApiUrl = "https://translate.googleapis.com/translate_a/single"
+
+    @VisibleForTesting
+    internal var fallbackApiUrl = "https://clients5.google.com/translate_a/t"
+
     val agents = arrayOf(
         "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/130.0.0.0 Safari/537.36",
         "Mozilla/5.0 (Windows NT 10.0; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/130.0.0.0 Safari/537.36",
@@ -101,18 +120,26 @@ object LocalizationHelper {
 
     fun prefetch(context: Context, vararg formatArgs: Any?) {
         try {
-        formatArgs.toList().forEach {
-            try {
-                if (getTranslatedStringFromResources(context, it as Int).isNullOrEmpty())
-                    invoke(
-                        getStringForLocale(context, it, Locale.US),
-                        Locale.US,
-                        AndroidContext.appLocale
-                    )
-            } catch (e: Throwable) {
-                LogCat.logException(e, "LocalizationHelper")
+            val texts = LinkedHashSet<String>()
+            formatArgs.toList().forEach {
+                try {
+                    if (getTranslatedStringFromResources(context, it as Int).isNullOrEmpty())
+                        texts.add(getStringForLocale(context, it, Locale.US))
+                } catch (e: Throwable) {
+                    LogCat.logException(e, "LocalizationHelper")
+                }
+            }
+            val fromLang = Locale.US
+            val toLang = AndroidContext.appLocale
+            //Short strings share requests; longer ones are translated one by one in sentence batches
+            val batches = TranslationBatch.pack(texts, MAX_BATCH_LENGTH)
+            for (batch in batches) {
+                invokeBatch(batch, fromLang, toLang)
+                texts.removeAll(batch.toSet())
+            }
+            for (text in texts) {
+                invoke(text, fromLang, toLang)
             }
-        }
         } catch (e: Throwable) {
             LogCat.logException(e, "LocalizationHelper")
         }
@@ -165,23 +192,99 @@ object LocalizationHelper {
     }
 
 
+    private fun inFlightKey(fromLang: Locale, toLang: Locale, text: String) =
+        fromLang.language + ">>" + toLang.language + ">>" + text
+
     private fun invoke(
         text: String,
         fromLang: Locale,
         toLang: Locale,
         listener: TranslateResult? = null
     ) {
-        ExecutorHelper.startOnBackground {
-            val str = read(fromLang, toLang, text) ?: translate(text, fromLang, toLang).also {
-                store(fromLang, toLang, text, it)
+        translationExecutor.execute {
+            read(fromLang, toLang, text)?.let { str ->
+                ExecutorHelper.post {
+                    listener?.onResult(str)
+                }
+                return@execute
             }
-            ExecutorHelper.post {
-                listener?.onResult(str)
+            //Identical requests share the single translation
+            val key = inFlightKey(fromLang, toLang, text)
+            synchronized(inFlight) {
+                inFlight[key]?.let {
+                    it.add(listener)
+                    return@execute
+                }
+                inFlight[key] = mutableListOf(listener)
+            }
+            var str = text
+            try {
+                str = read(fromLang, toLang, text) ?: translate(text, fromLang, toLang).also {
+                    store(fromLang, toLang, text, it)
+                }
+            } finally {
+                val listeners = synchronized(inFlight) {
+                    inFlight.remove(key)
+                }
+                ExecutorHelper.post {
+                    listeners?.forEach { it?.onResult(str) }
+                }
             }
         }
 
     }
 
+    //Several short strings in one request; strings the batch could not resolve are translated one by one
+    private fun invokeBatch(texts: List<String>, fromLang: Locale, toLang: Locale) {
+        translationExecutor.execute {
+            val pending = texts.filter { read(fromLang, toLang, it) == null }
+            val owned = mutableListOf<String>()
+            synchronized(inFlight) {
+                for (text in pending) {
+                    val key = inFlightKey(fromLang, toLang, text)
+                    if (!inFlight.containsKey(key)) {
+                        inFlight[key] = mutableListOf()
+                        owned.add(text)
+                    }
+                }
+            }
+            if (owned.isEmpty())
+                return@execute
+            val results = try {
+                if (NetworkApi.hasInternet())
+                    TranslationBatch.translate(
+                        fallbackApiUrl,
+                        fromLang.language,
+                        toLang.language,
+                        owned,
+                        ::fetchFromWeb
+                    )
+                else null
+            } catch (e: Throwable) {
+                LogCat.logException(e, "LocalizationHelper")
+                null
+            }
+            for (i in owned.indices) {
+                val text = owned[i]
+                var str = text
+                try {
+                    str = results?.get(i)?.also {
+                        store(fromLang, toLang, text, it)
+                    } ?: translate(text, fromLang, toLang).also {
+                        store(fromLang, toLang, text, it)
+                    }
+                } finally {
+                    val listeners = synchronized(inFlight) {
+                        inFlight.remove(inFlightKey(fromLang, toLang, text))
+                    }
+                    ExecutorHelper.post {
+                        listeners?.forEach { it?.onResult(str) }
+                    }
+                }
+            }
+        }
+    }
+
     private fun read(
         fromLang: Locale,
         toLang: Locale,
@@ -189,16 +292,7 @@ object LocalizationHelper {
     ): String? {
         if (fromLang.language == toLang.language)
             return text
-        val pref = SharedPreferenceProvider.getPreferences("LocalizationHelperV3")
-        val key = fromLang.language + ">>" + toLang.language
-        val set = HashSet<String>(pref.getStringSet(key, emptySet()) ?: emptySet())
-        set.forEach {
-            val json = JSONObject(it)
-            if (json.has(text))
-                return json.getString(text).trim().ifEmpty { return null }
-        }
-
-        return null
+        return TranslationCache.get(fromLang, toLang).get(text)?.trim()?.ifEmpty { null }
     }
 
     private fun store(
@@ -211,44 +305,24 @@ object LocalizationHelper {
             return
         if (text.trim().isEmpty() || result.trim().isEmpty() || text == result)
             return
-        val pref = SharedPreferenceProvider.getPreferences("LocalizationHelperV3")
-        val key = fromLang.language + ">>" + toLang.language
-        val set = HashSet<String>(pref.getStringSet(key, emptySet()) ?: emptySet())
-        set.add(JSONObject().apply {
-            this.put(text, result)
-        }.toString())
-
-        pref.edit()
-            .putStringSet(key, set).apply()
+        TranslationCache.get(fromLang, toLang).put(text, result)
     }
 
     private fun translate(text: String, fromLang: Locale, toLang: Locale): String {
         try {
-            val parts = text.split(".")
+            val batches = splitToBatches(text)
             //first try
-            var sb = StringBuilder()
-            parts.forEach {
-                translateUseGoogleApi(it, fromLang, toLang)?.let { s ->
-                    if (s.isNotEmpty())
-                        sb.append(s).append(". ")
-                }
+            var result = translateBatches(batches) {
+                translateUseGoogleApi(it, fromLang, toLang)
             }
-            var result = sb.toString().trim()
-
             if (!text.endsWith(".") && result.endsWith("."))
                 result = result.substring(0, result.length - 1)
 
             if (result.isNotEmpty()) return result
 
-            sb = StringBuilder()
-            parts.forEach {
-                translateUseFallbackApi(it, fromLang, toLang)?.let { s ->
-                    if (s.isNotEmpty())
-                        sb.append(s).append(". ")
-                }
+            result = translateBatches(batches) {
+                translateUseFallbackApi(it, fromLang, toLang)
             }
-            result = sb.toString().trim()
-
             if (!text.endsWith(".") && result.endsWith("."))
                 result = result.substring(0, result.length - 1)
 
@@ -259,24 +333,48 @@ object LocalizationHelper {
         return text//return not translated
     }
 
+    //Sentences are packed into as few requests as possible
+    private fun splitToBatches(text: String): List<String> {
+        if (text.length <= MAX_BATCH_LENGTH)
+            return listOf(text)
+        val batches = mutableListOf<String>()
+        val sb = StringBuilder()
+        val parts = text.split(".")
+        for (i in parts.indices) {
+            val part = if (i < parts.size - 1) parts[i] + "." else parts[i]
+            if (sb.isNotEmpty() && sb.length + part.length > MAX_BATCH_LENGTH) {
+                batches.add(sb.toString())
+                sb.setLength(0)
+            }
+            sb.append(part)
+        }
+        if (sb.isNotBlank())
+            batches.add(sb.toString())
+        return batches
+    }
+
+    private fun translateBatches(batches: List<String>, translator: (String) -> String?): String {
+        val sb = StringBuilder()
+        for (batch in batches) {
+            if (batch.isBlank())
+                continue
+            //partial translation is worse than none
+            val s = translator.invoke(batch) ?: return ""
+            sb.append(s).append(" ")
+        }
+        return sb.toString().trim()
+    }
+
     //https://translate.googleapis.com/translate_a/single?client=gtx&sl=en&tl=fr&dt=t&q=father&ie=UTF-8&oe=UTF-8
     //https://clients5.google.com/translate_a/t?client=dict-chrome-ex&sl=en&tl=fr&dt=t&q=father
     private fun translateUseGoogleApi(t: String, fromLang: Locale, toLang: Locale): String? {
         LogCat.logError("translateUseGoogleApi: from=$fromLang to=$toLang text=$t")
         if (NetworkApi.hasInternet())
             try {
-                var text = t
-                for (i in 1..Int.MAX_VALUE) {
-                    if (text.contains("%$i$")) {
-                        text = text.replace("%$i$", "%$i%")
-                    } else
-                        break
-                }
-
-                val encode: String = URLEncoder.encode(text.replace("\n", " \\n "), "UTF-8")
+                val encode: String = URLEncoder.encode(TranslationBatch.escape(t), "UTF-8")
                 val sb = StringBuilder()
 
-                sb.append("https://translate.googleapis.com/translate_a/single?client=gtx&sl=")
+                sb.append(googleApiUrl).append("?client=gtx&sl=")
                 sb.append(fromLang.language)
                 sb.append("&tl=")
                 sb.append(toLang.language)
@@ -285,24 +383,15 @@ object LocalizationHelper {
                 val data = fetchFromWeb(sb.toString())
                 //note:
                 //[[["père","father",null,null,10]],null,"en",null,null,null,null,[]]
-
-                var s = JSONArray(data)
-                    .getJSONArray(0)
-                    .getJSONArray(0)
-                    .getString(0)
-                for (i in 1..Int.MAX_VALUE) {
-                    if (s.contains("%$i%")) {
-                        s = s
-                            .replace("%$i%", "%$i$")
-                            .replace("%$i\$S", "%$i\$s")
-                            .replace("%$i\$D", "%$i\$d")
-                    } else
-                        break
+                //every sentence of the batch is a separate segment
+                val segments = JSONArray(data).getJSONArray(0)
+                val result = StringBuilder()
+                for (i in 0 until segments.length()) {
+                    val segment = segments.optJSONArray(i) ?: continue
+                    if (!segment.isNull(0))
+                        result.append(segment.getString(0))
                 }
-                return s
-                    .replace(" \\ n ", "\n")
-                    .replace("\\ n", "\n")
-                    .replace("  ", " ").trim()
+                return TranslationBatch.unescape(result.toString())
                     .ifEmpty { return null }
             } catch (e: Throwable) {
                 LogCat.logException(e, "LocalizationHelper")
@@ -314,44 +403,14 @@ object LocalizationHelper {
         LogCat.logError("translateUseFallbackApi: from=$fromLang to=$toLang text=$t")
         if (NetworkApi.hasInternet())
             try {
-                var text = t
-                for (i in 1..Int.MAX_VALUE) {
-                    if (text.contains("%$i$")) {
-                        text = text.replace("%$i$", "%$i%")
-                    } else
-                        break
-                }
-
-                val encode: String = URLEncoder.encode(text.replace("\n", " \\n "), "UTF-8")
-                val sb = StringBuilder()
-                sb.append("https://clients5.google.com/translate_a/t?client=dict-chrome-ex&sl=")
-                sb.append(fromLang.language)
-                sb.append("&tl=")
-                sb.append(toLang.language)
-                sb.append("&dt=t&q=")
-                sb.append(encode).append("&ie=UTF-8&oe=UTF-8")
-
-                val data = fetchFromWeb(sb.toString())
-
                 //["père"]
-                val jSONArray =
-                    JSONArray(data)
-                var s = jSONArray.getString(0)
-
-                for (i in 1..Int.MAX_VALUE) {
-                    if (s.contains("%$i%")) {
-                        s = s
-                            .replace("%$i%", "%$i$")
-                            .replace("%$i\$S", "%$i\$s")
-                            .replace("%$i\$D", "%$i\$d")
-                    } else
-                        break
-                }
-                return s
-                    .replace(" \\ n ", "\n")
-                    .replace("\\ n", "\n")
-                    .replace("  ", " ").trim()
-                    .ifEmpty { return null }
+                return TranslationBatch.translate(
+                    fallbackApiUrl,
+                    fromLang.language,
+                    toLang.language,
+                    listOf(t),
+                    ::fetchFromWeb
+                )?.firstOrNull()
             } catch (e: Throwable) {
                 LogCat.logException(e, "LocalizationHelper")
             }
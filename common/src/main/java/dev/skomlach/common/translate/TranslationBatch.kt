@@ -0,0 +1,132 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.translate
+
+import org.json.JSONArray
+import java.net.URLEncoder
+
+/**
+ * Packs several short strings into one request of the `translate_a/t` endpoint: it accepts repeated `q`
+ * parameters and answers with one translation per `q`, in the same order.
+ *
+ * Free of Android dependencies, so it is unit-tested against a loopback HTTP stub.
+ */
+internal object TranslationBatch {
+
+    /**
+     * Greedy packing in the given order; strings longer than [maxLength] are not batched at all
+     */
+    fun pack(texts: Collection<String>, maxLength: Int): List<List<String>> {
+        val batches = mutableListOf<List<String>>()
+        var batch = mutableListOf<String>()
+        var length = 0
+        for (text in texts) {
+            if (text.length > maxLength)
+                continue
+            if (batch.isNotEmpty() && length + text.length > maxLength) {
+                batches.add(batch)
+                batch = mutableListOf()
+                length = 0
+            }
+            batch.add(text)
+            length += text.length
+        }
+        if (batch.isNotEmpty())
+            batches.add(batch)
+        return batches
+    }
+
+    fun buildUrl(baseUrl: String, fromLang: String, toLang: String, texts: List<String>): String {
+        val sb = StringBuilder()
+        sb.append(baseUrl).append("?client=dict-chrome-ex&sl=")
+        sb.append(fromLang)
+        sb.append("&tl=")
+        sb.append(toLang)
+        sb.append("&dt=t")
+        for (text in texts) {
+            sb.append("&q=").append(URLEncoder.encode(escape(text), "UTF-8"))
+        }
+        sb.append("&ie=UTF-8&oe=UTF-8")
+        return sb.toString()
+    }
+
+    /**
+     * @return translations in the order of the request, or null if the response does not match it
+     */
+    fun parse(data: String?, count: Int): List<String?>? {
+        if (data.isNullOrEmpty())
+            return null
+        try {
+            //["père","mère"] or, with source language detection, [["père","fr"],["mère","fr"]]
+            val array = JSONArray(data)
+            if (array.length() != count)
+                return null
+            val result = ArrayList<String?>(count)
+            for (i in 0 until count) {
+                val s = array.optJSONArray(i)?.optString(0) ?: array.optString(i)
+                result.add(unescape(s).ifEmpty { null })
+            }
+            return result
+        } catch (e: Throwable) {
+            return null
+        }
+    }
+
+    fun translate(
+        baseUrl: String,
+        fromLang: String,
+        toLang: String,
+        texts: List<String>,
+        fetch: (String) -> String?
+    ): List<String?>? {
+        if (texts.isEmpty())
+            return emptyList()
+        return parse(fetch.invoke(buildUrl(baseUrl, fromLang, toLang, texts)), texts.size)
+    }
+
+    //Positional placeholders and line breaks do not survive the translation as is
+    fun escape(t: String): String {
+        var text = t
+        for (i in 1..Int.MAX_VALUE) {
+            if (text.contains("%$i$")) {
+                text = text.replace("%$i$", "%$i%")
+            } else
+                break
+        }
+        return text.replace("\n", " \\n ")
+    }
+
+    fun unescape(t: String): String {
+        var s = t
+        for (i in 1..Int.MAX_VALUE) {
+            if (s.contains("%$i%")) {
+                s = s
+                    .replace("%$i%", "%$i$")
+                    .replace("%$i\$S", "%$i\$s")
+                    .replace("%$i\$D", "%$i\$d")
+            } else
+                break
+        }
+        return s
+            .replace(" \\ n ", "\n")
+            .replace("\\ n", "\n")
+            .replace("  ", " ").trim()
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.translate
+
+import dev.skomlach.common.contextprovider.AndroidContext
+import dev.skomlach.common.logging.LogCat
+import dev.skomlach.common.storage.SharedPreferenceProvider
+import org.json.JSONObject
+import java.io.File
+import java.util.Locale
+
+/**
+ * Translations for one language pair.
+ *
+ * Loaded once into a [HashMap]; every new translation is appended to the on-disk [TranslationLog].
+ */
+internal class TranslationCache private constructor(private val key: String, private val log: TranslationLog) {
+    companion object {
+        private const val LEGACY_PREF_NAME = "LocalizationHelperV3"
+        private val caches = HashMap<String, TranslationCache>()
+
+        fun get(fromLang: Locale, toLang: Locale): TranslationCache {
+            val key = fromLang.language + ">>" + toLang.language
+            synchronized(caches) {
+                return caches.getOrPut(key) {
+                    TranslationCache(
+                        key,
+                        TranslationLog(
+                            File(
+                                File(AndroidContext.appContext.filesDir, "LocalizationHelper"),
+                                fromLang.language + "-" + toLang.language + ".log"
+                            )
+                        )
+                    )
+                }
+            }
+        }
+    }
+
+    private var map: HashMap<String, String>? = null
+
+    @Synchronized
+    fun get(text: String): String? = load()[text]
+
+    @Synchronized
+    fun put(text: String, result: String) {
+        val map = load()
+        if (map[text] == result)
+            return
+        map[text] = result
+        try {
+            log.append(map, text, result)
+        } catch (e: Throwable) {
+            LogCat.logException(e, "TranslationCache")
+            //Do not append after a possibly torn record - rewrite the log from memory
+            try {
+                log.compact(map)
+            } catch (e: Throwable) {
+                LogCat.logException(e, "TranslationCache")
+            }
+        }
+    }
+
+    private fun load(): HashMap<String, String> {
+        map?.let { return it }
+        val map = HashMap<String, String>()
+        this.map = map
+        try {
+            if (!log.exists()) {
+                migrate(map)
+                log.compact(map)
+                return map
+            }
+            //Keep the records before the first bad one and drop the rest
+            if (!log.read(map))
+                log.compact(map)
+        } catch (e: Throwable) {
+            LogCat.logException(e, "TranslationCache")
+        }
+        return map
+    }
+
+    //Translations stored by the previous versions in SharedPreferences
+    private fun migrate(map: HashMap<String, String>) {
+        val pref = SharedPreferenceProvider.getPreferences(LEGACY_PREF_NAME)
+        val set = pref.getStringSet(key, null) ?: return
+        for (it in set) {
+            try {
+                val json = JSONObject(it)
+                for (text in json.keys()) {
+                    val result = json.getString(text).trim()
+                    if (result.isNotEmpty())
+                        map[text] = result
+                }
+            } catch (e: Throwable) {
+                LogCat.logException(e, "TranslationCache")
+            }
+        }
+        pref.edit().remove(key).apply()
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.translate
+
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.util.zip.CRC32
+
+/**
+ * On-disk log of the translations of one language pair.
+ *
+ * Layout: [MAGIC] then records of `int payloadLength, payload, int crc32(payload)`, where the payload is
+ * `int textLength, text (UTF-8), int resultLength, result (UTF-8)`. Loading stops at the first record that is
+ * torn or fails the checksum; the caller rewrites the file without it and everything after it.
+ */
+internal class TranslationLog(private val file: File) {
+    companion object {
+        private const val COMPACTION_THRESHOLD = 64
+        private const val MAGIC = 0x54524331 //"TRC1"
+        private const val MAX_RECORD_SIZE = 1024 * 1024
+    }
+
+    private var records = 0
+
+    fun exists(): Boolean = file.exists()
+
+    /**
+     * @return false if a torn or corrupted record was found; [map] holds the records before it
+     */
+    fun read(map: HashMap<String, String>): Boolean = decode(file.readBytes(), map)
+
+    /**
+     * Appends the new value of [text], which is already in [map], and compacts the log
+     * when superseded records start to dominate it.
+     */
+    fun append(map: HashMap<String, String>, text: String, result: String) {
+        //Oversized records would be rejected by the loader - keep them in memory only
+        val record = encode(text, result) ?: return
+        //The record is written with one call, so a failure can only leave a torn tail
+        FileOutputStream(file, true).use {
+            it.write(record)
+        }
+        records++
+        if (records > COMPACTION_THRESHOLD && records > map.size * 2)
+            compact(map)
+    }
+
+    /**
+     * Rewrites the log from [map]
+     */
+    fun compact(map: HashMap<String, String>) {
+        file.parentFile?.mkdirs()
+        val tmp = File(file.parentFile, file.name + ".tmp")
+        BufferedOutputStream(FileOutputStream(tmp)).use {
+            writeRecords(it, map)
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete()
+            throw IllegalStateException("Unable to replace $file")
+        }
+        records = map.size
+    }
+
+    /**
+     * @return null if the record is too large for the loader to accept
+     */
+    private fun encode(text: String, result: String): ByteArray? {
+        val textBytes = text.toByteArray(Charsets.UTF_8)
+        val resultBytes = result.toByteArray(Charsets.UTF_8)
+        if (8L + textBytes.size + resultBytes.size > MAX_RECORD_SIZE)
+            return null
+        val payload = ByteBuffer.allocate(8 + textBytes.size + resultBytes.size)
+            .putInt(textBytes.size).put(textBytes)
+            .putInt(resultBytes.size).put(resultBytes)
+            .array()
+        val crc = CRC32()
+        crc.update(payload)
+        return ByteBuffer.allocate(8 + payload.size)
+            .putInt(payload.size)
+            .put(payload)
+            .putInt(crc.value.toInt())
+            .array()
+    }
+
+    private fun writeRecords(out: OutputStream, map: Map<String, String>) {
+        DataOutputStream(out).writeInt(MAGIC)
+        for ((text, result) in map) {
+            //The loader stops at an oversized record and would drop every record after it
+            out.write(encode(text, result) ?: continue)
+        }
+    }
+
+    /**
+     * @return false if a torn or corrupted record was found
+     */
+    private fun decode(bytes: ByteArray, map: HashMap<String, String>): Boolean {
+        val buffer = ByteBuffer.wrap(bytes)
+        if (buffer.remaining() < 4 || buffer.getInt() != MAGIC)
+            return bytes.isEmpty()
+        val crc = CRC32()
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < 4)
+                return false
+            val size = buffer.getInt()
+            if (size < 8 || size > MAX_RECORD_SIZE || buffer.remaining() < size + 4)
+                return false
+            val offset = buffer.position()
+            crc.reset()
+            crc.update(bytes, offset, size)
+            buffer.position(offset + size)
+            if (buffer.getInt() != crc.value.toInt())
+                return false
+            val payload = ByteBuffer.wrap(bytes, offset, size)
+            val textSize = payload.getInt()
+            if (textSize < 0 || textSize > payload.remaining() - 4)
+                return false
+            val text = String(bytes, payload.position(), textSize, Charsets.UTF_8)
+            payload.position(payload.position() + textSize)
+            val resultSize = payload.getInt()
+            if (resultSize != payload.remaining())
+                return false
+            map[text] = String(bytes, payload.position(), resultSize, Charsets.UTF_8)
+            records++
+        }
+        return true
+    }
+}
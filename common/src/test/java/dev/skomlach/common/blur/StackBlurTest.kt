@@ -0,0 +1,115 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.blur
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Test
+import java.util.Random
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Golden-image check: the banded [StackBlur] must produce exactly the pixels of the original
+ * single-threaded algorithm ([ReferenceStackBlur]) for any size, radius and band split.
+ */
+class StackBlurTest {
+    private val executor: ExecutorService = Executors.newFixedThreadPool(3)
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun sameAsReference() {
+        val blur = StackBlur(executor, 4)
+        for (size in listOf(1 to 1, 1 to 97, 97 to 1, 31 to 33, 64 to 64, 257 to 131, 480 to 270)) {
+            for (radius in intArrayOf(1, 2, 8, 25)) {
+                assertSame(blur, size.first, size.second, radius)
+            }
+        }
+    }
+
+    @Test
+    fun sameAsReferenceOn1080p() {
+        val blur = StackBlur(executor, 4)
+        for (radius in intArrayOf(8, 25)) {
+            assertSame(blur, 1080, 1920, radius)
+            assertSame(blur, 1920, 1080, radius)
+        }
+    }
+
+    @Test
+    fun bandCountDoesNotChangeOutput() {
+        for (bands in 1..5) {
+            assertSame(StackBlur(executor, bands), 203, 157, 8)
+        }
+    }
+
+    @Test
+    fun reusedBuffersDoNotLeak() {
+        //Smaller images after a bigger one run on the oversized scratch buffers
+        val blur = StackBlur(executor, 4)
+        assertSame(blur, 300, 200, 25)
+        assertSame(blur, 120, 90, 3)
+        assertSame(blur, 90, 120, 25)
+        assertSame(blur, 300, 200, 25)
+    }
+
+    @Test
+    fun pixelsBuffer() {
+        //Same path as FastBlur.stack(): the image is copied into the reusable buffer
+        val blur = StackBlur(executor, 4)
+        val w = 150
+        val h = 100
+        val source = image(w, h, 7)
+        val expected = source.copyOf()
+        ReferenceStackBlur.blur(expected, w, h, 8)
+        synchronized(blur) {
+            val pix = blur.pixels(w, h)
+            System.arraycopy(source, 0, pix, 0, w * h)
+            blur.blur(pix, w, h, 8)
+            assertArrayEquals(expected, pix.copyOf(w * h))
+        }
+    }
+
+    private fun assertSame(blur: StackBlur, w: Int, h: Int, radius: Int) {
+        val source = image(w, h, w * 31 + h * 17 + radius)
+        val expected = source.copyOf()
+        ReferenceStackBlur.blur(expected, w, h, radius)
+        val actual = source.copyOf()
+        blur.blur(actual, w, h, radius)
+        assertArrayEquals("${w}x$h, radius $radius", expected, actual)
+    }
+
+    //Noise with hard edges and a random alpha, so every channel and the band borders matter
+    private fun image(w: Int, h: Int, seed: Int): IntArray {
+        val random = Random(seed.toLong())
+        return IntArray(w * h) {
+            val x = it % w
+            val y = it / w
+            if ((x / 16 + y / 16) % 3 == 0)
+                random.nextInt()
+            else
+                (random.nextInt(256) shl 24) or (if (x < w / 2) 0xFF8000 else 0x0040FF)
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.device
+
+import com.google.gson.Gson
+import com.google.gson.JsonParser
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.BeforeClass
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.channels.FileChannel
+import java.util.Locale
+
+/**
+ * Golden check of the lookups over the bundled database: [DeviceDb] (as compiled by
+ * common/device-db.gradle) with its [DeviceNameIndex] prefilter must return exactly what the original
+ * linear scans over by_brand.json / devices.json returned. The scans below are the pre-index code of
+ * DeviceModel.getNameFromAssets() and DeviceInfoManager.findDeviceInfo(); only the per-entry normalization
+ * and the split of the query are hoisted out of the loops to keep the test fast.
+ */
+class DeviceDbGoldenTest {
+    companion object {
+        private lateinit var db: DeviceDb
+
+        //name, model, device - by_brand.json order
+        private val brands = ArrayList<Array<String>>()
+
+        //same with model and device filtered as in DeviceModel.getNameFromAssets()
+        private val filteredBrands = ArrayList<Array<String>>()
+        private val brandKeys = ArrayList<String>()
+        private lateinit var specs: Array<DeviceSpec>
+
+        @BeforeClass
+        @JvmStatic
+        fun load() {
+            //Passed by common/build.gradle; the defaults are relative to the module directory
+            val asset = File(
+                System.getProperty("devicedb.asset") ?: "build/generated/devicedb/${DeviceDb.FILE_NAME}"
+            )
+            val sources = File(System.getProperty("devicedb.sources") ?: "src/devicedb")
+            RandomAccessFile(asset, "r").use {
+                db = DeviceDb.validate(it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length()))
+                    ?: throw IllegalStateException("Unsupported format of $asset")
+            }
+            File(sources, "by_brand.json").bufferedReader().use { reader ->
+                for ((key, list) in JsonParser.parseReader(reader).asJsonObject.entrySet()) {
+                    for (e in list.asJsonArray) {
+                        val o = e.asJsonObject
+                        brands.add(
+                            arrayOf(
+                                o.get("name").asString,
+                                o.get("model").asString,
+                                o.get("device").asString
+                            )
+                        )
+                        brandKeys.add(key)
+                        filteredBrands.add(brands.last().map { s ->
+                            s.filter { c ->
+                                c.isLetterOrDigit() || c.isWhitespace()
+                            }
+                        }.toTypedArray())
+                    }
+                }
+            }
+            specs = File(sources, "devices.json").bufferedReader().use {
+                Gson().fromJson(it, Array<DeviceSpec>::class.java)
+            }
+        }
+    }
+
+    @Test
+    fun sameRecordsCount() {
+        assertEquals(specs.size, db.specsCount)
+        for (i in specs.indices)
+            assertEquals(specs[i].name, db.getSpecName(i))
+    }
+
+    @Test
+    fun nameByModel() {
+        for (model in sample { it[1] }) {
+            assertEquals(model, scanBrands(model, 1), db.findNameByModel(model))
+        }
+    }
+
+    @Test
+    fun nameByDevice() {
+        for (device in sample { it[2] }) {
+            assertEquals(device, scanBrands(device, 2), db.findNameByDevice(device))
+        }
+    }
+
+    @Test
+    fun indexCandidatesCoverAllMatches() {
+        for (query in specQueries().map { it[0] }.distinct()) {
+            val candidates = db.nameIndex.candidates(query)
+            for (i in 1 until candidates.size)
+                assertTrue(query, candidates[i - 1] < candidates[i])
+            for (i in specs.indices) {
+                if (specs[i].name?.contains(query, ignoreCase = true) == true)
+                    assertTrue("$query -> ${specs[i].name}", candidates.binarySearch(i) >= 0)
+            }
+        }
+    }
+
+    @Test
+    fun specLookup() {
+        for ((model, brand, codename) in specQueries()) {
+            assertEquals(
+                "$model/$brand/$codename",
+                scanSpecs(model, brand, codename),
+                DeviceInfoManager.findSpec(db, model, brand, codename)
+            )
+        }
+    }
+
+    //Every 40th entry, all entries with non-ASCII chars and the case/punctuation variants of them
+    private fun sample(value: (Array<String>) -> String): List<String> {
+        val result = LinkedHashSet<String>()
+        for (i in brands.indices) {
+            val s = value(brands[i])
+            if (i % 40 == 0 || s.any { it.code > 127 }) {
+                result.add(s)
+                result.add(s.uppercase(Locale.ROOT))
+                result.add(s.replace(" ", "").replace("-", "_"))
+            }
+        }
+        result.add("")
+        result.add("no such device")
+        return result.toList()
+    }
+
+    //(model, brand, codename) as DeviceInfoManager gets them from DeviceModel
+    private fun specQueries(): List<Array<String>> {
+        val result = ArrayList<Array<String>>()
+        for (i in specs.indices step 3) {
+            val spec = specs[i]
+            val name = spec.name ?: continue
+            result.add(arrayOf(name, spec.brand ?: "", "unknown"))
+            result.add(arrayOf(name.lowercase(Locale.ROOT), "", ""))
+            result.add(arrayOf("Unknown model", spec.brand ?: "", spec.codename ?: ""))
+            result.add(arrayOf("$name Pro Max", "", ""))
+            result.add(arrayOf(name.substringBeforeLast(' '), "", ""))
+        }
+        for (i in brands.indices step 60) {
+            val (name, _, device) = brands[i]
+            val key = brandKeys[i]
+            val full = if (name.startsWith(key, ignoreCase = true)) name else "$key $name"
+            result.add(arrayOf(full, key, device))
+            result.add(arrayOf("$full 5G Dual SIM", key, device))
+        }
+        result.add(arrayOf("", "", ""))
+        result.add(arrayOf("ab", "", ""))
+        return result
+    }
+
+    private fun scanBrands(value: String, field: Int): String? {
+        val filtered = value.filter { c ->
+            c.isLetterOrDigit() || c.isWhitespace()
+        }
+        for (index in brands.indices) {
+            val name = brands[index][0]
+            val m = brands[index][field]
+            if (name.isNullOrEmpty()) {
+                continue
+            } else if (!m.isNullOrEmpty() && (value.equals(
+                    m,
+                    ignoreCase = true
+                ) || filtered.equals(filteredBrands[index][field], ignoreCase = true))
+            ) {
+                return name
+            }
+        }
+        return null
+    }
+
+    private fun scanSpecs(model: String, brand: String, codeName: String): Int {
+        val arr = splitString(model, " ")
+        var firstFound = -1
+        specs.forEachIndexed { index, it ->
+            if (it.name.equals(model, ignoreCase = true) || (brand.contains(
+                    it.brand.toString(),
+                    ignoreCase = true
+                ) && it.codename == codeName)
+            ) {
+                return index
+            } else if (firstFound == -1) {
+                if (it.name?.contains(model, ignoreCase = true) == true) {
+                    firstFound = index
+                } else {
+                    var i = arr.size
+                    for (s in arr) {
+                        if (i < 2) //Device should have at least brand + model
+                            break
+                        val shortName = join(arr, " ", i)
+                        if (it.name?.contains(shortName, ignoreCase = true) == true) {
+                            firstFound = index
+                        }
+                        i--
+                    }
+                }
+            }
+        }
+        return firstFound
+    }
+
+    private fun join(array: Array<String>, delim: String, limit: Int): String {
+        val stringBuilder = StringBuilder()
+        for (i in 0 until (array.size).coerceAtMost(limit)) {
+            stringBuilder.append(array[i]).append(delim)
+        }
+        return stringBuilder.toString().trim()
+    }
+
+    private fun splitString(str: String, delimiter: String): Array<String> {
+        if (str.isEmpty() || delimiter.isEmpty()) {
+            return arrayOf(str)
+        }
+        val list = ArrayList<String>()
+        var start = 0
+        var end = str.indexOf(delimiter, start)
+        while (end != -1) {
+            list.add(str.substring(start, end))
+            start = end + delimiter.length
+            end = str.indexOf(delimiter, start)
+        }
+        list.add(str.substring(start))
+        return list.toTypedArray()
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.translate
+
+import com.sun.net.httpserver.HttpServer
+import org.json.JSONArray
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.net.HttpURLConnection
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.URL
+import java.net.URLDecoder
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs [TranslationBatch] against a loopback HTTP stub of the `translate_a/t` endpoint,
+ * which "translates" every `q` by prefixing it and counts the requests it receives.
+ * When [overlap] is set, each request waits for it, so it opens only once two requests are in flight at once.
+ */
+class TranslationBatchTest {
+    private lateinit var server: HttpServer
+    private lateinit var baseUrl: String
+    private val requests = AtomicInteger()
+    private val overlapped = AtomicBoolean()
+
+    @Volatile
+    private var overlap: CountDownLatch? = null
+
+    @Volatile
+    private var dropLastItem = false
+
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0)
+        server.createContext("/translate_a/t") { exchange ->
+            requests.incrementAndGet()
+            overlap?.let {
+                it.countDown()
+                if (it.await(5, TimeUnit.SECONDS))
+                    overlapped.set(true)
+            }
+            val result = JSONArray()
+            for (param in exchange.requestURI.rawQuery.split("&")) {
+                if (param.startsWith("q="))
+                    result.put("fr:" + URLDecoder.decode(param.substring(2), "UTF-8"))
+            }
+            if (dropLastItem)
+                result.remove(result.length() - 1)
+            val body = result.toString().toByteArray(Charsets.UTF_8)
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.executor = Executors.newFixedThreadPool(4)
+        server.start()
+        baseUrl = "http://127.0.0.1:${server.address.port}/translate_a/t"
+    }
+
+    @After
+    fun tearDown() {
+        server.stop(0)
+    }
+
+    private fun fetch(url: String): String? {
+        val connection = URL(url).openConnection() as HttpURLConnection
+        try {
+            return connection.inputStream.use { String(it.readBytes(), Charsets.UTF_8) }
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    @Test
+    fun shortStringsShareOneRequest() {
+        val texts = listOf("Cancel", "Use password", "Biometric authentication", "Try again", "OK")
+        val batches = TranslationBatch.pack(texts, 1000)
+        assertEquals(1, batches.size)
+
+        val result = TranslationBatch.translate(baseUrl, "en", "fr", batches[0], ::fetch)
+
+        assertEquals(1, requests.get())
+        assertEquals(texts.map { "fr:$it" }, result)
+    }
+
+    @Test
+    fun batchesAreSplitAtSizeLimit() {
+        val texts = listOf("a".repeat(400), "b".repeat(400), "c".repeat(400), "d".repeat(1001))
+        val batches = TranslationBatch.pack(texts, 1000)
+
+        //the oversized string is left for the per-string path
+        assertEquals(listOf(listOf(texts[0], texts[1]), listOf(texts[2])), batches)
+        for (batch in batches)
+            TranslationBatch.translate(baseUrl, "en", "fr", batch, ::fetch)
+        assertEquals(2, requests.get())
+    }
+
+    @Test
+    fun placeholdersAreRestored() {
+        val result = TranslationBatch.translate(baseUrl, "en", "fr", listOf("Hello %1\$s"), ::fetch)
+
+        assertEquals(listOf("fr:Hello %1\$s"), result)
+    }
+
+    @Test
+    fun mismatchedResponseIsRejected() {
+        dropLastItem = true
+
+        assertNull(TranslationBatch.translate(baseUrl, "en", "fr", listOf("Cancel", "OK"), ::fetch))
+    }
+
+    @Test
+    fun independentBatchesRunConcurrently() {
+        overlap = CountDownLatch(2)
+        val batches = (0 until 8).map { i -> listOf("first $i", "second $i") }
+        val pool = Executors.newFixedThreadPool(2)
+        try {
+            val futures = batches.map { batch ->
+                pool.submit<List<String?>?> {
+                    TranslationBatch.translate(baseUrl, "en", "fr", batch, ::fetch)
+                }
+            }
+            for (i in batches.indices)
+                assertEquals(batches[i].map { "fr:$it" }, futures[i].get(10, TimeUnit.SECONDS))
+        } finally {
+            pool.shutdown()
+        }
+
+        assertEquals(batches.size, requests.get())
+        //two requests were held on the server at the same time
+        assertTrue(overlapped.get())
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *  Copyright (c) 2023 Sergey Komlach aka Salat-Cx65; Original project https://github.com/Salat-Cx65/AdvancedBiometricPromptCompat
+ *  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package dev.skomlach.common.translate
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.RandomAccessFile
+
+/**
+ * Reads back what [TranslationLog] writes to a temporary file, including torn and oversized records.
+ */
+class TranslationLogTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun reload(log: TranslationLog): Pair<Boolean, Map<String, String>> {
+        val map = HashMap<String, String>()
+        return log.read(map) to map
+    }
+
+    @Test
+    fun compactedLogIsReadBack() {
+        val log = TranslationLog(folder.root.resolve("en-fr.log"))
+        val map = hashMapOf("Cancel" to "Annuler", "OK" to "D'accord", "Try again" to "Réessayer")
+        log.compact(map)
+
+        assertEquals(true to map, reload(log))
+    }
+
+    @Test
+    fun appendedRecordsSupersedeOlderOnes() {
+        val log = TranslationLog(folder.root.resolve("en-fr.log"))
+        val map = hashMapOf("Cancel" to "Annuler")
+        log.compact(map)
+        map["OK"] = "Bien"
+        log.append(map, "OK", "Bien")
+        map["OK"] = "D'accord"
+        log.append(map, "OK", "D'accord")
+
+        assertEquals(true to map, reload(log))
+    }
+
+    @Test
+    fun tornTailIsDropped() {
+        val file = folder.root.resolve("en-fr.log")
+        val log = TranslationLog(file)
+        val map = hashMapOf("Cancel" to "Annuler")
+        log.compact(map)
+        log.append(map, "OK", "D'accord")
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 3) }
+
+        assertEquals(false to mapOf("Cancel" to "Annuler"), reload(log))
+    }
+
+    @Test
+    fun oversizedRecordsAreNotWritten() {
+        val log = TranslationLog(folder.root.resolve("en-fr.log"))
+        val huge = "x".repeat(1024 * 1024)
+        val map = LinkedHashMap<String, String>()
+        for (i in 0 until 10)
+            map["text $i"] = if (i == 3) huge else "result $i"
+        log.compact(HashMap(map))
+        log.append(HashMap(map), "appended", huge)
+
+        val (valid, read) = reload(log)
+        assertTrue(valid)
+        assertEquals(map.filterValues { it != huge }, read)
+        assertFalse(read.containsKey("appended"))
+    }
+}